@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.impl.Task;
+import com.baasbox.android.test.common.BaasTestBase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for futures of requests that do not reach the server.
+ */
+public class BaasFutureTest extends BaasTestBase {
+
+    private static Task<String> succeeding(final String value) {
+        return new Task<String>(RequestOptions.DEFAULT, null) {
+            @Override
+            protected String asyncCall() throws BaasException {
+                return value;
+            }
+        };
+    }
+
+    private static Task<String> failing(final String message) {
+        return new Task<String>(RequestOptions.DEFAULT, null) {
+            @Override
+            protected String asyncCall() throws BaasException {
+                throw new BaasException(message);
+            }
+        };
+    }
+
+    private static Task<String> blocking(final CountDownLatch latch) {
+        return new Task<String>(RequestOptions.DEFAULT, null) {
+            @Override
+            protected String asyncCall() throws BaasException {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new BaasException(e);
+                }
+                return null;
+            }
+        };
+    }
+
+    public void testFutureOfCompletedRequest() throws Exception {
+        RequestToken token = box.submitAsync(succeeding("done"));
+        BaasResult<String> awaited = token.await();
+        assertEquals("done", awaited.value());
+
+        BaasFuture<String> future = token.future();
+        assertNotNull(future);
+        BaasResult<String> result = future.get(1, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertEquals("done", result.value());
+    }
+
+    public void testAllOfFailsWithFirstFailure() throws Exception {
+        BaasFuture<String> ok = box.submitAsync(succeeding("ok")).future();
+        BaasFuture<String> failed = box.submitAsync(failing("first")).future();
+        BaasResult<Void> all = BaasFuture.allOf(ok, failed).get(1, TimeUnit.SECONDS);
+        assertTrue(all.isFailed());
+        assertFalse(all.isCanceled());
+        assertEquals("first", all.error().getMessage());
+    }
+
+    public void testAllOfIsCancelledNotFailed() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        BaasFuture<String> ok = box.submitAsync(succeeding("ok")).future();
+        BaasFuture<String> canceled = box.submitAsync(blocking(latch)).future();
+        assertTrue(canceled.cancel(true));
+        latch.countDown();
+
+        BaasResult<Void> all = BaasFuture.allOf(ok, canceled).get(1, TimeUnit.SECONDS);
+        assertTrue(all.isCanceled());
+    }
+}
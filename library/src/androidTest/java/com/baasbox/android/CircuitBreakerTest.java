@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.test.common.TestBase;
+
+/**
+ * Tests for the circuits of endpoint families.
+ */
+public class CircuitBreakerTest extends TestBase {
+
+    public void testFamilies() {
+        assertEquals("document", CircuitBreaker.familyOf("document/posts/1"));
+        assertEquals("plugin/mine", CircuitBreaker.familyOf("plugin/mine/run"));
+        assertEquals("plugin/mine", CircuitBreaker.familyOf("plugin/mine"));
+        assertEquals("me", CircuitBreaker.familyOf("me"));
+        assertNull(new CircuitBreaker(0, 100).circuit("document"));
+    }
+
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 10000);
+        CircuitBreaker.Circuit circuit = breaker.circuit("document/1");
+        assertSame(circuit, breaker.circuit("document/2"));
+        circuit.acquire();
+        circuit.failure();
+        circuit.acquire();
+        circuit.success();
+        circuit.acquire();
+        circuit.failure();
+        assertFalse(breaker.isOpen("document"));
+        circuit.acquire();
+        circuit.failure();
+        assertTrue(breaker.isOpen("document"));
+        try {
+            circuit.acquire();
+            fail("the circuit should be open");
+        } catch (BaasCircuitOpenException expected) {
+            // fails fast
+        }
+    }
+
+    public void testHalfOpenCircuitLetsOneProbeThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        CircuitBreaker.Circuit circuit = breaker.circuit("file");
+        circuit.acquire();
+        circuit.failure();
+        Thread.sleep(80);
+
+        circuit.acquire();
+        try {
+            circuit.acquire();
+            fail("only one probe should be sent");
+        } catch (BaasCircuitOpenException expected) {
+            // another request is probing
+        }
+        circuit.success();
+        assertFalse(breaker.isOpen("file"));
+        circuit.acquire();
+    }
+
+    public void testReleasedProbeLetsTheNextOneThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        CircuitBreaker.Circuit circuit = breaker.circuit("file");
+        circuit.acquire();
+        circuit.failure();
+        Thread.sleep(80);
+
+        circuit.acquire();
+        circuit.release();
+        circuit.acquire();
+        circuit.failure();
+        assertTrue(breaker.isOpen("file"));
+    }
+}
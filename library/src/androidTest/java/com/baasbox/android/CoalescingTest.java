@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.impl.Task;
+import com.baasbox.android.test.common.BaasTestBase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for identical requests sharing the result of the one in flight.
+ */
+public class CoalescingTest extends BaasTestBase {
+
+    private static final long TIMEOUT = 5000;
+
+    private static class Fetch extends Task<String> {
+        final CountDownLatch started = new CountDownLatch(1);
+        private final String key;
+        private final AtomicInteger calls;
+        private final CountDownLatch release;
+        private final String error;
+        private final boolean remote;
+
+        Fetch(String key, AtomicInteger calls, CountDownLatch release, String error) {
+            this(key, calls, release, error, false);
+        }
+
+        Fetch(String key, AtomicInteger calls, CountDownLatch release, String error, boolean remote) {
+            super(RequestOptions.DEFAULT, null);
+            this.key = key;
+            this.calls = calls;
+            this.release = release;
+            this.error = error;
+            this.remote = remote;
+        }
+
+        @Override
+        protected String coalesceKey() {
+            return key;
+        }
+
+        @Override
+        protected boolean isRemote() {
+            return remote;
+        }
+
+        @Override
+        protected String asyncCall() throws BaasException {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new BaasException(e);
+            }
+            if (error != null) {
+                throw new BaasException(error);
+            }
+            return key;
+        }
+    }
+
+    @Override
+    protected BaasBox initBaasbox(BaasBox.Config.AuthType auth) {
+        // a single slot, so that a second remote request is held
+        return BaasBox.builder(getContext()).setConcurrencyLimit(1, 1).init();
+    }
+
+    private static BaasResult<String> get(RequestToken token) throws Exception {
+        BaasFuture<String> future = token.future();
+        assertNotNull(future);
+        return future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private RequestToken[] attach(String key, AtomicInteger calls, CountDownLatch release, String error) throws Exception {
+        Fetch leader = new Fetch(key, calls, release, error);
+        RequestToken[] tokens = new RequestToken[3];
+        tokens[0] = box.submitAsync(leader);
+        assertTrue(leader.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        tokens[1] = box.submitAsync(new Fetch(key, calls, release, error));
+        tokens[2] = box.submitAsync(new Fetch(key, calls, release, error));
+        // let the followers reach a worker and attach
+        Thread.sleep(200);
+        return tokens;
+    }
+
+    public void testFollowersShareTheResult() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RequestToken[] tokens = attach("shared", calls, release, null);
+        release.countDown();
+        for (RequestToken token : tokens) {
+            BaasResult<String> result = get(token);
+            assertTrue(result.isSuccess());
+            assertEquals("shared", result.value());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    public void testFollowersShareTheFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RequestToken[] tokens = attach("failed", calls, release, "boom");
+        release.countDown();
+        for (RequestToken token : tokens) {
+            BaasResult<String> result = get(token);
+            assertTrue(result.isFailed());
+            assertEquals("boom", result.error().getMessage());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    public void testFollowersOfCancelledLeaderRunOnTheirOwn() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RequestToken[] tokens = attach("cancelled", calls, release, null);
+        assertTrue(tokens[0].cancel());
+        release.countDown();
+        assertTrue(get(tokens[0]).isCanceled());
+        for (int i = 1; i < tokens.length; i++) {
+            BaasResult<String> result = get(tokens[i]);
+            assertTrue(result.isSuccess());
+            assertEquals("cancelled", result.value());
+        }
+        assertTrue(calls.get() >= 2);
+    }
+
+    public void testCancelledFollowerDoesNotRun() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RequestToken[] tokens = attach("follower", calls, release, null);
+        assertTrue(tokens[0].cancel());
+        assertTrue(tokens[1].cancel());
+        release.countDown();
+        assertTrue(get(tokens[1]).isCanceled());
+        assertTrue(get(tokens[2]).isSuccess());
+        assertEquals(2, calls.get());
+    }
+
+    public void testCancelledHeldLeaderReleasesFollowers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Fetch busy = new Fetch("busy", calls, release, null, true);
+        RequestToken busyToken = box.submitAsync(busy);
+        assertTrue(busy.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        RequestToken leader = box.submitAsync(new Fetch("held", calls, release, null, true));
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (box.getRequestsWaiting() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        RequestToken follower = box.submitAsync(new Fetch("held", calls, release, null, true));
+        Thread.sleep(200);
+        assertTrue(leader.cancel());
+        assertTrue(get(leader).isCanceled());
+
+        release.countDown();
+        assertTrue(get(busyToken).isSuccess());
+        assertEquals("held", get(follower).value());
+        // later identical requests do not attach to the cancelled leader
+        RequestToken next = box.submitAsync(new Fetch("held", calls, release, null, true));
+        assertEquals("held", get(next).value());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.test.common.TestBase;
+
+/**
+ * Tests for the parsing of the ranges returned by ranged downloads.
+ */
+public class ContentRangeTest extends TestBase {
+
+    public void testParsesRange() {
+        RangedDownload.ContentRange range = RangedDownload.ContentRange.parse("bytes 100-199/1000");
+        assertNotNull(range);
+        assertEquals(100, range.start);
+        assertEquals(1000, range.total);
+    }
+
+    public void testUnknownTotal() {
+        RangedDownload.ContentRange range = RangedDownload.ContentRange.parse("bytes 0-99/*");
+        assertNotNull(range);
+        assertEquals(0, range.start);
+        assertEquals(-1, range.total);
+    }
+
+    public void testToleratesSpaces() {
+        RangedDownload.ContentRange range = RangedDownload.ContentRange.parse("bytes  5-9 / 10");
+        assertNotNull(range);
+        assertEquals(5, range.start);
+        assertEquals(10, range.total);
+    }
+
+    public void testRejectsInvalidHeaders() {
+        assertNull(RangedDownload.ContentRange.parse(null));
+        assertNull(RangedDownload.ContentRange.parse(""));
+        assertNull(RangedDownload.ContentRange.parse("items 0-9/10"));
+        assertNull(RangedDownload.ContentRange.parse("bytes */1000"));
+        assertNull(RangedDownload.ContentRange.parse("bytes 0/1000"));
+        assertNull(RangedDownload.ContentRange.parse("bytes 9/0-1"));
+        assertNull(RangedDownload.ContentRange.parse("bytes a-9/10"));
+        assertNull(RangedDownload.ContentRange.parse("bytes 0-9/ten"));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.test.common.TestBase;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+/**
+ * Tests for the default retry policy and for replaying request bodies.
+ */
+public class ExponentialBackoffTest extends TestBase {
+
+    private final ExponentialBackoff policy = new ExponentialBackoff(3, 100, 1000, 5000);
+
+    private static BaasApiException status(int status) {
+        return new BaasApiException(-1, status, "resource", "method",
+                Collections.<String, String>emptyMap(), "", "status " + status);
+    }
+
+    public void testRefusedRequestsAreRetriedForAnyMethod() {
+        assertTrue(policy.retryDelay(HttpRequest.POST, 1, status(429), -1) >= 0);
+        assertTrue(policy.retryDelay(HttpRequest.PATCH, 1, status(503), -1) >= 0);
+    }
+
+    public void testGatewayErrorsAreRetriedOnlyWhenIdempotent() {
+        assertTrue(policy.retryDelay(HttpRequest.GET, 1, status(502), -1) >= 0);
+        assertTrue(policy.retryDelay(HttpRequest.DELETE, 1, status(504), -1) >= 0);
+        assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(HttpRequest.POST, 1, status(502), -1));
+        assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(HttpRequest.GET, 1, status(500), -1));
+        assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(HttpRequest.GET, 1, status(404), -1));
+    }
+
+    public void testIoErrorsOfWritesAreRetriedOnlyIfNotConnected() {
+        BaasIOException timeout = new BaasIOException(new SocketTimeoutException());
+        BaasIOException refused = new BaasIOException(new ConnectException());
+        assertTrue(policy.retryDelay(HttpRequest.GET, 1, timeout, -1) >= 0);
+        assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(HttpRequest.POST, 1, timeout, -1));
+        assertTrue(policy.retryDelay(HttpRequest.POST, 1, refused, -1) >= 0);
+    }
+
+    public void testDelaysAreCapped() {
+        BaasApiException busy = status(503);
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            long cap = Math.min(1000, 100L << (attempt - 1));
+            for (int i = 0; i < 50; i++) {
+                long delay = policy.retryDelay(HttpRequest.GET, attempt, busy, -1);
+                assertTrue(delay >= 0 && delay <= cap);
+            }
+        }
+        assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(HttpRequest.GET, 4, busy, -1));
+    }
+
+    public void testRetryAfterIsHonoured() {
+        BaasApiException busy = status(503);
+        assertTrue(policy.retryDelay(HttpRequest.GET, 1, busy, 3000) >= 3000);
+        assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(HttpRequest.GET, 1, busy, 6000));
+    }
+
+    public void testMultipartBodiesOfFilesCanBeReplayed() throws Exception {
+        File file = File.createTempFile("upload", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write("content".getBytes("UTF-8"));
+            out.close();
+            InputStream content = new FileInputStream(file);
+            MultipartBody body = new MultipartBody("head".getBytes("UTF-8"), content, "tail".getBytes("UTF-8"));
+            assertEquals(15, body.length());
+            String first = written(body);
+            assertTrue(body.rewind());
+            assertEquals(15, body.length());
+            assertEquals(first, written(body));
+            assertEquals("headcontenttail", first);
+            content.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testOnlyMultipartBodiesOfKnownStreamsCanBeReplayed() throws Exception {
+        InputStream content = new ByteArrayInputStream("content".getBytes("UTF-8"));
+        MultipartBody bytes = new MultipartBody(new byte[0], content, new byte[0]);
+        written(bytes);
+        assertTrue(bytes.rewind());
+        assertEquals("content", written(bytes));
+
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(new byte[4]));
+        MultipartBody unknown = new MultipartBody(new byte[0], stream, new byte[0]);
+        written(unknown);
+        assertFalse(unknown.rewind());
+    }
+
+    private static String written(MultipartBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toString("UTF-8");
+    }
+}
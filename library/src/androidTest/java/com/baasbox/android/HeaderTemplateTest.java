@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.test.common.TestBase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tests for the request headers layered over a template.
+ */
+public class HeaderTemplateTest extends TestBase {
+
+    private static HeaderTemplate template() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("X-BAASBOX-APPCODE", "1234567890");
+        headers.put("Accept-Encoding", "gzip");
+        headers.put("X-BB-SESSION", "token");
+        return new HeaderTemplate(headers, Collections.singleton("Accept-Encoding"), 0, null);
+    }
+
+    public void testReadsTemplateHeaders() {
+        Map<String, String> headers = template().with(null);
+        assertEquals("1234567890", headers.get("X-BAASBOX-APPCODE"));
+        assertTrue(headers.containsKey("Accept-Encoding"));
+        assertEquals(3, headers.size());
+    }
+
+    public void testExtrasOverrideDefaults() {
+        Map<String, String> headers = template().with(null);
+        assertEquals("gzip", headers.put("Accept-Encoding", "identity"));
+        headers.put("If-None-Match", "\"etag\"");
+        assertEquals("identity", headers.get("Accept-Encoding"));
+        assertEquals("\"etag\"", headers.get("If-None-Match"));
+        assertEquals(4, headers.size());
+    }
+
+    public void testTemplateOverridesExtras() {
+        Map<String, String> extras = new HashMap<String, String>();
+        extras.put("X-BB-SESSION", "forged");
+        extras.put("X-BAASBOX-APPCODE", "other");
+        Map<String, String> headers = template().with(extras);
+        assertEquals("token", headers.get("X-BB-SESSION"));
+        assertEquals("1234567890", headers.get("X-BAASBOX-APPCODE"));
+        assertEquals(3, headers.size());
+        assertFalse(headers.containsValue("forged"));
+        assertFalse(headers.containsValue("other"));
+
+        assertEquals("token", headers.put("X-BB-SESSION", "forged"));
+        assertEquals("token", headers.remove("X-BB-SESSION"));
+        assertEquals("token", headers.get("X-BB-SESSION"));
+    }
+
+    public void testRemovalShadowsTemplate() {
+        Map<String, String> extras = new HashMap<String, String>();
+        extras.put("Range", "bytes=0-");
+        Map<String, String> headers = template().with(extras);
+        assertEquals("gzip", headers.remove("Accept-Encoding"));
+        assertEquals("bytes=0-", headers.remove("Range"));
+        assertFalse(headers.containsKey("Accept-Encoding"));
+        assertNull(headers.get("Accept-Encoding"));
+        assertFalse(headers.containsKey("Range"));
+        assertEquals(2, headers.size());
+        Iterator<Map.Entry<String, String>> entries = headers.entrySet().iterator();
+        assertFalse("Accept-Encoding".equals(entries.next().getKey()));
+        assertFalse("Accept-Encoding".equals(entries.next().getKey()));
+        assertFalse(entries.hasNext());
+    }
+
+    public void testTemplateIsNeverChanged() {
+        HeaderTemplate template = template();
+        Map<String, String> first = template.with(null);
+        first.put("If-None-Match", "\"etag\"");
+        first.remove("Accept-Encoding");
+        Map<String, String> second = template.with(null);
+        assertEquals("gzip", second.get("Accept-Encoding"));
+        assertFalse(second.containsKey("If-None-Match"));
+        assertEquals(3, second.size());
+    }
+
+    public void testMatchesGeneration() {
+        HeaderTemplate template = template();
+        assertTrue(template.matches(0, null));
+        assertFalse(template.matches(1, null));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.content.Context;
+
+import com.baasbox.android.net.CancellableRestClient;
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.test.common.BaasTestBase;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the duplicates of slow requests.
+ */
+public class HedgerTest extends BaasTestBase {
+
+    /**
+     * Answers every attempt right away, except those marked as slow
+     * that wait until they are cancelled.
+     */
+    private static class FakeClient implements CancellableRestClient {
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        final AtomicInteger attempts = new AtomicInteger();
+        final Map<HttpRequest, CountDownLatch> slow = new ConcurrentHashMap<HttpRequest, CountDownLatch>();
+        final Set<Integer> slowAttempts = new CopyOnWriteArraySet<Integer>();
+
+        @Override
+        public org.apache.http.HttpResponse execute(HttpRequest request) throws BaasException {
+            int attempt = attempts.getAndIncrement();
+            threads.add(Thread.currentThread().getName());
+            if (slowAttempts.contains(attempt)) {
+                CountDownLatch cancelled = new CountDownLatch(1);
+                slow.put(request, cancelled);
+                try {
+                    if (!cancelled.await(5, TimeUnit.SECONDS)) {
+                        throw new BaasIOException("never cancelled");
+                    }
+                } catch (InterruptedException e) {
+                    throw new BaasIOException(e);
+                }
+                throw new BaasIOException("cancelled");
+            }
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            response.addHeader("X-Attempt", Integer.toString(attempt));
+            return response;
+        }
+
+        @Override
+        public void cancel(HttpRequest request) {
+            CountDownLatch cancelled = slow.get(request);
+            if (cancelled != null) {
+                cancelled.countDown();
+            }
+        }
+
+        @Override
+        public void init(Context context, BaasBox.Config config) {
+        }
+    }
+
+    private static HttpRequest get() {
+        return new HttpRequest(HttpRequest.GET, "http://localhost/document/posts", new HashMap<String, String>(), null);
+    }
+
+    private Hedger warm(FakeClient client) throws BaasException {
+        Hedger hedger = new Hedger(client, box.asyncDispatcher(), 0.9, 0.5);
+        for (int i = 0; i < 16; i++) {
+            hedger.race(get()).execute().close();
+        }
+        client.threads.clear();
+        client.attempts.set(0);
+        return hedger;
+    }
+
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        FakeClient client = new FakeClient();
+        Hedger hedger = warm(client);
+        HttpResponse response = hedger.race(get()).execute();
+        assertEquals("0", response.header("X-Attempt"));
+        Thread.sleep(200);
+        assertEquals(1, client.attempts.get());
+        assertEquals(Thread.currentThread().getName(), client.threads.get(0));
+    }
+
+    public void testSlowPrimaryIsHedgedOnASideThread() throws Exception {
+        FakeClient client = new FakeClient();
+        Hedger hedger = warm(client);
+        client.slowAttempts.add(0);
+        HttpResponse response = hedger.race(get()).execute();
+        assertEquals("1", response.header("X-Attempt"));
+        assertEquals(2, client.attempts.get());
+        // the primary ran on the calling thread and was aborted by the hedge
+        assertEquals(Thread.currentThread().getName(), client.threads.get(0));
+        assertTrue(client.threads.get(1).startsWith("BaasBox-hedge-"));
+    }
+
+    public void testCancelAbortsBothAttempts() throws Exception {
+        FakeClient client = new FakeClient();
+        Hedger hedger = warm(client);
+        client.slowAttempts.add(0);
+        client.slowAttempts.add(1);
+        final Hedger.Race race = hedger.race(get());
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                race.cancel();
+            }
+        }.start();
+        try {
+            race.execute();
+            fail("the race should be cancelled");
+        } catch (BaasCancellationException expected) {
+            // both attempts were aborted
+        }
+        assertEquals(2, client.attempts.get());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import com.baasbox.android.test.common.TestBase;
+
+import java.util.List;
+
+/**
+ * Tests for the adaptive limit of requests in flight.
+ */
+public class ConcurrencyLimiterTest extends TestBase {
+
+    private static final long MILLI = 1000000L;
+
+    public void testRequestsOverTheLimitWait() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 10);
+        assertTrue(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        assertTrue(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        Task<Void> waiting = TaskQueueTest.task(Constants.PRIORITY_NORMAL);
+        assertFalse(limiter.acquire(waiting));
+        assertEquals(2, limiter.inFlight());
+        assertEquals(1, limiter.waiting());
+
+        List<Task<?>> admitted = limiter.release(-1, false);
+        assertEquals(1, admitted.size());
+        assertSame(waiting, admitted.get(0));
+        assertEquals(2, limiter.inFlight());
+        assertEquals(0, limiter.waiting());
+    }
+
+    public void testHigherPrioritiesTakeFreedSlotsFirst() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        assertTrue(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        Task<Void> background = TaskQueueTest.task(Constants.PRIORITY_BACKGROUND);
+        Task<Void> low = TaskQueueTest.task(Constants.PRIORITY_LOW);
+        Task<Void> high = TaskQueueTest.task(Constants.PRIORITY_HIGH);
+        assertFalse(limiter.acquire(background));
+        assertFalse(limiter.acquire(low));
+        assertFalse(limiter.acquire(high));
+
+        assertSame(high, limiter.release(-1, false).get(0));
+        assertSame(low, limiter.release(-1, false).get(0));
+        assertSame(background, limiter.release(-1, false).get(0));
+        assertTrue(limiter.release(-1, false).isEmpty());
+    }
+
+    public void testAgedRequestsAreNotStarved() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        assertTrue(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        Task<Void> background = TaskQueueTest.task(Constants.PRIORITY_BACKGROUND);
+        assertFalse(limiter.acquire(background));
+        Thread.sleep(TaskQueue.DEFAULT_AGING_MILLIS + 50);
+        assertFalse(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_HIGH)));
+        assertSame(background, limiter.release(-1, false).get(0));
+    }
+
+    public void testRemovedRequestsAreNotAdmitted() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        assertTrue(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        Task<Void> removed = TaskQueueTest.task(Constants.PRIORITY_LOW);
+        assertFalse(limiter.acquire(removed));
+        assertTrue(limiter.remove(removed));
+        assertFalse(limiter.remove(removed));
+        assertTrue(limiter.release(-1, false).isEmpty());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    public void testDroppedRequestsHalveTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 10);
+        assertTrue(limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        limiter.release(-1, true);
+        assertEquals(4, limiter.limit());
+    }
+
+    public void testLimitFollowsLatency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 20);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire(TaskQueueTest.task(Constants.PRIORITY_NORMAL));
+        }
+        // a steady latency means no queue: the used limit grows
+        limiter.release(100 * MILLI, false);
+        assertEquals(9, limiter.limit());
+        // a latency far above the idle one means a queue: the limit shrinks
+        limiter.release(1000 * MILLI, false);
+        assertEquals(8, limiter.limit());
+        assertEquals(100, limiter.minRttMillis());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import com.baasbox.android.test.common.TestBase;
+
+import java.util.Arrays;
+
+/**
+ * Tests for the token buckets of the rate limiter.
+ */
+public class RateLimiterTest extends TestBase {
+
+    public void testBurstIsSentWithoutWaiting() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("document/*", 1, 3);
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.throttledRequests());
+    }
+
+    public void testRequestsOverTheBurstWaitForTheirToken() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("document", 10, 1);
+        assertEquals(0, bucket.reserve());
+        long first = bucket.reserve();
+        long second = bucket.reserve();
+        // one token every 100 milliseconds, each waiting request owns one
+        assertTrue(first > 0 && first <= 100);
+        assertTrue(second > 100 && second <= 200);
+        assertEquals(2, bucket.throttledRequests());
+        assertTrue(bucket.availablePermits() < 0);
+    }
+
+    public void testTokensAreRefilledUpToTheBurst() throws Exception {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket("document", 100, 2);
+        bucket.reserve();
+        bucket.reserve();
+        Thread.sleep(100);
+        assertEquals(2, bucket.availablePermits(), 0.001);
+    }
+
+    public void testEndpointsUseTheLongestPrefix() {
+        RateLimiter.Bucket documents = new RateLimiter.Bucket("/document/*", 1, 1);
+        RateLimiter.Bucket posts = new RateLimiter.Bucket("document/posts", 1, 1);
+        RateLimiter limiter = new RateLimiter(Arrays.asList(documents, posts));
+
+        assertEquals(0, limiter.reserve("document/posts/1"));
+        assertTrue(limiter.reserve("document/posts/2") > 0);
+        assertEquals(0, limiter.reserve("document/comments"));
+        assertEquals(1, posts.throttledRequests());
+        assertEquals(0, documents.throttledRequests());
+        assertEquals(0, limiter.reserve("file/1"));
+        assertEquals(0, limiter.reserve(null));
+        assertSame(documents, limiter.bucket("document/*"));
+    }
+
+    public void testPrefixesAreNormalized() {
+        assertEquals("document/", RateLimiter.normalize("/document/*"));
+        assertEquals("file", RateLimiter.normalize("file"));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import com.baasbox.android.BaasException;
+import com.baasbox.android.test.common.TestBase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the priority lanes of the worker queues.
+ */
+public class TaskQueueTest extends TestBase {
+
+    static Task<Void> task(int priority) {
+        return new Task<Void>(priority, null) {
+            @Override
+            protected Void asyncCall() throws BaasException {
+                return null;
+            }
+        };
+    }
+
+    public void testLanesAreServedByWeight() throws Exception {
+        TaskQueue queue = new TaskQueue(TimeUnit.MINUTES.toMillis(1));
+        int[] priorities = {Constants.PRIORITY_HIGH, Constants.PRIORITY_NORMAL,
+                            Constants.PRIORITY_LOW, Constants.PRIORITY_BACKGROUND};
+        for (int priority : priorities) {
+            for (int i = 0; i < 15; i++) {
+                queue.offer(task(priority));
+            }
+        }
+        int[] served = new int[TaskQueue.LANES];
+        int[] credits = TaskQueue.newCredits();
+        for (int i = 0; i < 15; i++) {
+            Task<?> task = queue.poll(credits, 0, TimeUnit.MILLISECONDS);
+            served[TaskQueue.laneOf(task.priority())]++;
+        }
+        assertEquals(8, served[TaskQueue.LANE_HIGH]);
+        assertEquals(4, served[TaskQueue.LANE_NORMAL]);
+        assertEquals(2, served[TaskQueue.LANE_LOW]);
+        assertEquals(1, served[TaskQueue.LANE_BACKGROUND]);
+        assertEquals(45, queue.size());
+    }
+
+    public void testAgedTasksAreServedFirst() throws Exception {
+        TaskQueue queue = new TaskQueue(50);
+        Task<Void> old = task(Constants.PRIORITY_BACKGROUND);
+        queue.offer(old);
+        Thread.sleep(100);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(task(Constants.PRIORITY_HIGH));
+        }
+        assertSame(old, queue.poll(TaskQueue.newCredits(), 0, TimeUnit.MILLISECONDS));
+    }
+
+    public void testRemovedTasksAreNotServed() throws Exception {
+        TaskQueue queue = new TaskQueue();
+        Task<Void> removed = task(Constants.PRIORITY_NORMAL);
+        Task<Void> kept = task(Constants.PRIORITY_NORMAL);
+        queue.offer(removed);
+        queue.offer(kept);
+        assertTrue(queue.remove(removed));
+        assertFalse(queue.remove(removed));
+        assertEquals(1, queue.depth(TaskQueue.LANE_NORMAL));
+        int[] credits = TaskQueue.newCredits();
+        assertSame(kept, queue.poll(credits, 0, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(credits, 10, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import com.baasbox.android.test.common.TestBase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the registry of live tasks.
+ */
+public class TaskRegistryTest extends TestBase {
+
+    public void testPutGetAndRemove() {
+        TaskRegistry registry = new TaskRegistry();
+        Task<Void> task = TaskQueueTest.task(Constants.PRIORITY_NORMAL);
+        assertNull(registry.get(1));
+        registry.put(1, task);
+        assertSame(task, registry.get(1));
+        assertEquals(1, registry.size());
+        assertTrue(registry.remove(1, task));
+        assertNull(registry.get(1));
+        assertFalse(registry.remove(1, task));
+        assertEquals(0, registry.size());
+    }
+
+    public void testRemoveRequiresTheMappedTask() {
+        TaskRegistry registry = new TaskRegistry();
+        Task<Void> task = TaskQueueTest.task(Constants.PRIORITY_NORMAL);
+        registry.put(7, task);
+        assertFalse(registry.remove(7, TaskQueueTest.task(Constants.PRIORITY_NORMAL)));
+        assertSame(task, registry.get(7));
+    }
+
+    public void testManyKeysSurviveGrowthAndDeletion() {
+        TaskRegistry registry = new TaskRegistry();
+        Map<Integer, Task<?>> expected = new HashMap<Integer, Task<?>>();
+        for (int key = 0; key < 2000; key++) {
+            Task<Void> task = TaskQueueTest.task(Constants.PRIORITY_NORMAL);
+            registry.put(key, task);
+            expected.put(key, task);
+        }
+        // removing in random order exercises the backward shift of probe chains
+        Random random = new Random(42);
+        for (int i = 0; i < 1500; i++) {
+            int key = random.nextInt(2000);
+            Task<?> task = expected.remove(key);
+            assertEquals(task != null, registry.remove(key, task));
+        }
+        assertEquals(expected.size(), registry.size());
+        for (int key = 0; key < 2000; key++) {
+            assertSame(expected.get(key), registry.get(key));
+        }
+    }
+
+    public void testNegativeKeys() {
+        TaskRegistry registry = new TaskRegistry();
+        Task<Void> task = TaskQueueTest.task(Constants.PRIORITY_NORMAL);
+        registry.put(Integer.MIN_VALUE, task);
+        assertSame(task, registry.get(Integer.MIN_VALUE));
+        assertNull(registry.get(0));
+    }
+}
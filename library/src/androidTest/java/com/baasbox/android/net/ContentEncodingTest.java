@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import com.baasbox.android.test.common.TestBase;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Tests for gzip encoded bodies.
+ */
+public class ContentEncodingTest extends TestBase {
+
+    private static final String CONTENT = "{\"data\":{\"message\":\"compressed content\"}}";
+
+    public void testGzipRoundTrip() throws Exception {
+        byte[] compressed = ContentEncoding.gzip(CONTENT.getBytes("UTF-8"));
+        InputStream decoded = ContentEncoding.decode(new ByteArrayInputStream(compressed), " GZIP ");
+        assertEquals(CONTENT, read(decoded));
+    }
+
+    public void testOtherEncodingsAreNotDecoded() throws Exception {
+        byte[] plain = CONTENT.getBytes("UTF-8");
+        ByteArrayInputStream in = new ByteArrayInputStream(plain);
+        assertSame(in, ContentEncoding.decode(in, null));
+        assertSame(in, ContentEncoding.decode(in, "identity"));
+        assertNull(ContentEncoding.decode(null, ContentEncoding.GZIP));
+    }
+
+    public void testEmptyGzipBodiesAreEmpty() throws Exception {
+        InputStream decoded = ContentEncoding.decode(new ByteArrayInputStream(new byte[0]), ContentEncoding.GZIP);
+        assertEquals("", read(decoded));
+    }
+
+    public void testStreamingGzipBodies() throws Exception {
+        HttpBody plain = new HttpBody() {
+            @Override
+            public long length() {
+                return CONTENT.length();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(CONTENT.getBytes("UTF-8"));
+            }
+        };
+        HttpBody gzip = ContentEncoding.gzip(plain);
+        assertEquals(-1, gzip.length());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gzip.writeTo(out);
+        assertEquals(CONTENT, read(ContentEncoding.decode(new ByteArrayInputStream(out.toByteArray()), ContentEncoding.GZIP)));
+        assertFalse(gzip.rewind());
+    }
+
+    public void testWrappedApacheResponsesAreInflated() throws Exception {
+        BasicHttpResponse apache = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        apache.setHeader(ContentEncoding.CONTENT_ENCODING, ContentEncoding.GZIP);
+        apache.setHeader("Content-Type", "application/json; charset=UTF-8");
+        apache.setEntity(new ByteArrayEntity(ContentEncoding.gzip(CONTENT.getBytes("UTF-8"))));
+
+        HttpResponse response = Responses.wrap(apache);
+        assertEquals(-1, response.contentLength());
+        assertEquals(CONTENT, Responses.toString(response, "ISO-8859-1"));
+    }
+
+    public void testNativeResponsesAreCopiedWithoutGzipEncoding() throws Exception {
+        BasicHttpResponse apache = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        apache.setHeader(ContentEncoding.CONTENT_ENCODING, ContentEncoding.GZIP);
+        apache.setEntity(new ByteArrayEntity(ContentEncoding.gzip(CONTENT.getBytes("UTF-8"))));
+
+        org.apache.http.HttpResponse copy = Responses.toApache(Responses.wrap(apache));
+        assertNull(copy.getFirstHeader(ContentEncoding.CONTENT_ENCODING));
+        assertEquals(CONTENT, read(copy.getEntity().getContent()));
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -16,9 +16,7 @@
 package com.baasbox.android;
 
 import com.baasbox.android.impl.Logger;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
@@ -30,6 +28,7 @@ abstract class AsyncStream<R> extends NetworkTask<R> {
 // ------------------------------ FIELDS ------------------------------
 
     private final DataStreamHandler<R> dataStream;
+    private volatile boolean started;
 
 // --------------------------- CONSTRUCTORS ---------------------------
     protected AsyncStream(BaasBox box, int flags, DataStreamHandler<R> dataStream, BaasHandler<R> handler) {
@@ -44,6 +43,11 @@ abstract class AsyncStream<R> extends NetworkTask<R> {
 
 // -------------------------- OTHER METHODS --------------------------
 
+    @Override
+    protected BaasBox.Config.WorkerPool workerPool() {
+        return BaasBox.Config.WorkerPool.STREAM;
+    }
+
     @Override
     protected R getFromCache(BaasBox box) throws BaasException {
         boolean handle = false;
@@ -68,41 +72,56 @@ abstract class AsyncStream<R> extends NetworkTask<R> {
 
     protected abstract String streamId();
 
+    @Override
+    protected long retryDelay(BaasException error) {
+        if (started) {
+            // the handler already received part of the data
+            return RetryPolicy.NO_RETRY;
+        }
+        return super.retryDelay(error);
+    }
+
     @Override
     protected R onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
-        HttpEntity entity = null;
         BufferedInputStream in = null;
         Cache.CacheStream cacheStream = null;
         R result = null;
         try {
-            entity = response.getEntity();
-            Header contentTypeHeader = entity.getContentType();
-            String contentType = "application/octet-stream";
-            if (contentTypeHeader != null) {
-                contentType = contentTypeHeader.getValue();
+            String contentType = response.header("Content-Type");
+            if (contentType == null) {
+                contentType = "application/octet-stream";
             }
             
-            long contentLength = entity.getContentLength();
+            long contentLength = response.contentLength();
             boolean unknownLength = contentLength == -1;
             
             int readBufferSize = unknownLength?4096:Math.min((int)contentLength,4096);
             
             byte[] data = new byte[readBufferSize];
             
-            in = BaasStream.getInput(entity);
+            in = BaasStream.getInput(response);
             int read = 0;
             
             cacheStream = box.mCache.beginStream(streamId());
             
+            started = true;
             dataStream.startData(streamId(),contentLength,contentType);
 
             while (((read = in.read(data,0,data.length)))>0){
+                if (isInterrupted()) {
+                    throw new BaasCancellationException();
+                }
                 cacheStream.write(data,0,read);
                 dataStream.onData(data,read);
             }
+            if (isInterrupted()) {
+                throw new BaasCancellationException();
+            }
             cacheStream.commit();
             
             result = dataStream.endData(streamId(), contentLength, contentType);
+        } catch (BaasCancellationException e) {
+            throw e;
         } catch (IOException e) {
             throw new BaasException(e);
         } catch (Exception e) {
@@ -112,9 +131,7 @@ abstract class AsyncStream<R> extends NetworkTask<R> {
                 if (in != null) {
                     in.close();
                 }
-                if (entity != null) {
-                    entity.consumeContent();
-                }
+                response.close();
                 if (cacheStream != null) {
                     cacheStream.close();
                 }
@@ -17,7 +17,7 @@ package com.baasbox.android;
 
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 /**
  * Collection of functions that work with assets.
@@ -195,6 +195,11 @@ public final class BaasAsset {
             return parseJson(response,box);
         }
 
+        @Override
+        protected boolean revalidate() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             RequestFactory f = box.requestFactory;
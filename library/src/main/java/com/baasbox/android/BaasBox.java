@@ -25,11 +25,15 @@ import com.baasbox.android.impl.Task;
 import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.PooledRestClient;
 import com.baasbox.android.net.RestClient;
 
-import org.apache.http.HttpResponse;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -93,6 +97,7 @@ public class BaasBox {
     public final Config config;
 
     final Cache mCache;
+    final RevalidationCache revalidation;
 
     final RequestFactory requestFactory;
     final RestClient restClient;
@@ -102,6 +107,10 @@ public class BaasBox {
 
     private final Rest mRest;
     private final Dispatcher asyncDispatcher;
+    final OfflineQueue offlineQueue;
+    final Hedger hedger;
+    final CircuitBreaker breaker;
+    final Prewarmer prewarmer;
     private final ImmediateDispatcher syncDispatcher;
 
 // --------------------------- CONSTRUCTORS ---------------------------
@@ -116,8 +125,13 @@ public class BaasBox {
         this.restClient.init(context,config);
         this.requestFactory = new RequestFactory(this.config, store);
         this.mCache = new Cache(context);
+        this.revalidation = new RevalidationCache(context);
         this.syncDispatcher = new ImmediateDispatcher();
         this.asyncDispatcher = new Dispatcher(this);
+        this.offlineQueue = new OfflineQueue(this, config.offlineReplayConcurrency);
+        this.hedger = new Hedger(restClient, asyncDispatcher, config.hedgePercentile, config.hedgeBudget);
+        this.breaker = new CircuitBreaker(config.circuitFailureThreshold, config.circuitOpenMillis);
+        this.prewarmer = new Prewarmer(this, config.prewarmConnections, config.prewarmIdleMillis);
         this.messagingService=new BaasCloudMessagingService(this);
         this.mRest = new RestImpl(this);
         for (Pair<Plugin<?>,Plugin.Options> p: plugins){
@@ -145,6 +159,8 @@ public class BaasBox {
         if(sDefaultClient!=null){
             synchronized (LOCK){
                 if(sDefaultClient!=null){
+                    sDefaultClient.offlineQueue.stop();
+                    sDefaultClient.prewarmer.stop();
                     sDefaultClient.asyncDispatcher.stop();
                     sDefaultClient.store.unbindUser();
                     sDefaultClient = null;
@@ -207,6 +223,14 @@ public class BaasBox {
         return asyncDispatcher.await(requestToken.requestId);
     }
 
+    <R> BaasFuture<R> future(RequestToken token) {
+        return BaasFuture.of(asyncDispatcher, token);
+    }
+
+    Dispatcher asyncDispatcher() {
+        return asyncDispatcher;
+    }
+
     boolean cancel(RequestToken token) {
         return asyncDispatcher.cancel(token.requestId, false);
     }
@@ -311,6 +335,192 @@ public class BaasBox {
         return asyncDispatcher.suspend(token.requestId);
     }
 
+    /**
+     * Returns the number of asynchronous requests submitted with
+     * <code>priority</code> that are still waiting for a worker.
+     *
+     * @param priority one of the priority flags of {@link com.baasbox.android.RequestOptions}
+     * @return the number of queued requests
+     */
+    public int getQueuedRequests(int priority) {
+        return asyncDispatcher.queueDepth(priority);
+    }
+
+    /**
+     * Returns the number of asynchronous requests submitted with
+     * <code>priority</code> that are still waiting for a worker of <code>pool</code>.
+     *
+     * @param pool     the worker pool to inspect
+     * @param priority one of the priority flags of {@link com.baasbox.android.RequestOptions}
+     * @return the number of queued requests
+     */
+    public int getQueuedRequests(Config.WorkerPool pool, int priority) {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        return asyncDispatcher.queueDepth(pool, priority);
+    }
+
+    /**
+     * Returns the number of threads currently alive in <code>pool</code>.
+     *
+     * @param pool the worker pool to inspect
+     * @return the number of worker threads
+     */
+    public int getLiveWorkers(Config.WorkerPool pool) {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        return asyncDispatcher.liveWorkers(pool);
+    }
+
+    /**
+     * Returns the permits currently available to the endpoints limited by <code>prefix</code>,
+     * a negative value is the number of requests waiting for a permit.
+     *
+     * @param prefix a prefix configured through {@link com.baasbox.android.BaasBox.Builder#setRateLimit(String, double, int)}
+     * @return the available permits
+     */
+    public double getRateLimitPermits(String prefix) {
+        if (prefix == null) throw new IllegalArgumentException("prefix cannot be null");
+        return asyncDispatcher.availablePermits(prefix);
+    }
+
+    /**
+     * Returns the number of requests delayed by the rate limit of <code>prefix</code>.
+     *
+     * @param prefix a prefix configured through {@link com.baasbox.android.BaasBox.Builder#setRateLimit(String, double, int)}
+     * @return the number of delayed requests
+     */
+    public long getThrottledRequests(String prefix) {
+        if (prefix == null) throw new IllegalArgumentException("prefix cannot be null");
+        return asyncDispatcher.throttledRequests(prefix);
+    }
+
+    /**
+     * Returns the total milliseconds requests waited because of the rate limit of <code>prefix</code>.
+     *
+     * @param prefix a prefix configured through {@link com.baasbox.android.BaasBox.Builder#setRateLimit(String, double, int)}
+     * @return the total wait time
+     */
+    public long getThrottledMillis(String prefix) {
+        if (prefix == null) throw new IllegalArgumentException("prefix cannot be null");
+        return asyncDispatcher.throttledMillis(prefix);
+    }
+
+    /**
+     * Returns the current limit of json and raw requests in flight, that adapts to the latency
+     * of the network, or -1 if the limit is disabled.
+     *
+     * @return the concurrency limit
+     * @see com.baasbox.android.BaasBox.Builder#setConcurrencyLimit(int, int)
+     */
+    public int getConcurrencyLimit() {
+        return asyncDispatcher.concurrencyLimit();
+    }
+
+    /**
+     * Returns the number of requests counted by the concurrency limit that are in flight.
+     *
+     * @return the requests in flight
+     */
+    public int getRequestsInFlight() {
+        return asyncDispatcher.requestsInFlight();
+    }
+
+    /**
+     * Returns the number of requests waiting for a slot of the concurrency limit.
+     *
+     * @return the waiting requests
+     */
+    public int getRequestsWaiting() {
+        return asyncDispatcher.requestsWaiting();
+    }
+
+    /**
+     * Returns the lowest recent round trip time of requests, an estimate of the latency
+     * of the network without queueing.
+     *
+     * @return the round trip time in milliseconds, 0 if unknown
+     */
+    public long getMinRoundTripMillis() {
+        return asyncDispatcher.minRoundTripMillis();
+    }
+
+    /**
+     * Returns the smoothed round trip time of requests.
+     *
+     * @return the round trip time in milliseconds, 0 if unknown
+     */
+    public long getRoundTripMillis() {
+        return asyncDispatcher.roundTripMillis();
+    }
+
+    /**
+     * Returns true if requests to the family of <code>endpoint</code>, such as
+     * <code>document</code> or <code>plugin/name</code>, are failing fast because the circuit is open.
+     *
+     * @param endpoint an endpoint relative to the api root
+     * @return true if the circuit is open
+     * @see com.baasbox.android.BaasBox.Builder#setCircuitBreaker(int, long)
+     */
+    public boolean isCircuitOpen(String endpoint) {
+        if (endpoint == null) throw new IllegalArgumentException("endpoint cannot be null");
+        return breaker.isOpen(endpoint.startsWith("/") ? endpoint.substring(1) : endpoint);
+    }
+
+    /**
+     * Returns the number of connections opened by the rest client,
+     * or -1 if the client does not report it.
+     *
+     * @return the connections opened
+     * @see com.baasbox.android.net.PooledRestClient
+     */
+    public long getNewConnections() {
+        return restClient instanceof PooledRestClient ? ((PooledRestClient) restClient).newConnections() : -1;
+    }
+
+    /**
+     * Returns the number of requests that reused an open connection,
+     * or -1 if the client does not report it.
+     *
+     * @return the reused connections
+     * @see com.baasbox.android.net.PooledRestClient
+     */
+    public long getReusedConnections() {
+        return restClient instanceof PooledRestClient ? ((PooledRestClient) restClient).reusedConnections() : -1;
+    }
+
+    /**
+     * Opens connections to the server in the background, call it right before
+     * a burst of requests is expected.
+     * Opens the number of connections set through
+     * {@link com.baasbox.android.BaasBox.Builder#setConnectionPrewarming(int, long)}, or one if warm up is disabled.
+     */
+    public void prewarm() {
+        prewarmer.prewarm();
+    }
+
+    /**
+     * Returns the number of writes waiting in the offline queue
+     * or being replayed.
+     *
+     * @return the size of the offline queue
+     * @see com.baasbox.android.RequestOptions#QUEUE_OFFLINE
+     */
+    public int getPendingOfflineRequests() {
+        return offlineQueue.size();
+    }
+
+    /**
+     * Returns the tokens of the queued writes restored from a previous run of the application.
+     * Restored requests are suspended: they are replayed when the device is online
+     * and deliver the raw json response of the server once resumed through
+     * {@link com.baasbox.android.RequestToken#resume(BaasHandler)} with a <code>BaasHandler&lt;JsonObject&gt;</code>.
+     *
+     * @return the tokens of the restored requests
+     * @see com.baasbox.android.RequestOptions#QUEUE_OFFLINE
+     */
+    public List<RequestToken> getRestoredOfflineRequests() {
+        return offlineQueue.restoredRequests();
+    }
+
     /**
      * Returns a new BaasBox Builder
      *
@@ -349,6 +559,24 @@ public class BaasBox {
         private RestClient mRestClient = null;
         private boolean mTokenExpires = false;
         private String[] mSenderIds;
+        private final Map<Config.WorkerPool,Config.PoolSettings> mPools = new EnumMap<Config.WorkerPool, Config.PoolSettings>(Config.WorkerPool.class);
+        private long mWorkerSpawnThreshold = 100;
+        private int mDeliveryBudget = 16;
+        private long mDeliverySliceMillis = 8;
+        private RetryPolicy mRetryPolicy = new ExponentialBackoff();
+        private final Map<String,Config.RateLimit> mRateLimits = new HashMap<String, Config.RateLimit>();
+        private int mOfflineReplayConcurrency = 1;
+        private int mConcurrencyLimit = 8;
+        private int mMaxConcurrencyLimit = 32;
+        private double mHedgePercentile = 0.95;
+        private double mHedgeBudget = 0.1;
+        private int mCircuitFailureThreshold = 5;
+        private long mCircuitOpenMillis = 10000;
+        private int mConnectionPoolSize = 5;
+        private long mConnectionKeepAliveMillis = 5 * 60 * 1000;
+        private int mRequestCompressionThreshold = -1;
+        private int mPrewarmConnections = 0;
+        private long mPrewarmIdleMillis = 60 * 1000;
 
         private Set<Pair<Plugin<?>,Plugin.Options>> plugins = new HashSet<Pair<Plugin<?>, Plugin.Options>>();
 
@@ -480,11 +708,256 @@ public class BaasBox {
             return this;
         }
 
+        /**
+         * Sets the maximum number of threads used for small json requests.
+         * If it's <code>0</code> the default is used.
+         *
+         * @param workers the number of threads
+         * @return this builder
+         */
         public Builder setWorkerThreads(int workers){
             mWorkerThreads = workers;
             return this;
         }
 
+        /**
+         * Sets the maximum number of threads of a worker pool.
+         * Each pool has its own queue, so that slow requests of one kind,
+         * like uploads, do not delay requests of the others.
+         *
+         * @param pool    the pool to configure
+         * @param threads the number of threads, <code>0</code> to use the default
+         * @return this builder
+         */
+        public Builder setWorkerPoolThreads(Config.WorkerPool pool,int threads){
+            if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+            int max = threads <= 0 ? pool.defaultMaxThreads : threads;
+            mPools.put(pool,new Config.PoolSettings(Math.min(pool.defaultCoreThreads,max),max,Config.PoolSettings.DEFAULT_KEEP_ALIVE));
+            return this;
+        }
+
+        /**
+         * Sets the sizing of an elastic worker pool.
+         * The pool keeps <code>coreThreads</code> alive and grows up to
+         * <code>maxThreads</code> under load; threads above the core
+         * are retired after being idle for <code>keepAliveMillis</code>.
+         *
+         * @param pool            the pool to configure
+         * @param coreThreads     the number of threads always kept alive
+         * @param maxThreads      the maximum number of threads
+         * @param keepAliveMillis how long an idle thread above core is kept, must be positive
+         * @return this builder
+         */
+        public Builder setWorkerPool(Config.WorkerPool pool,int coreThreads,int maxThreads,long keepAliveMillis){
+            if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+            if (coreThreads < 0) throw new IllegalArgumentException("coreThreads cannot be negative");
+            if (maxThreads <= 0 || maxThreads < coreThreads) throw new IllegalArgumentException("maxThreads must be positive and not less than coreThreads");
+            if (keepAliveMillis <= 0) throw new IllegalArgumentException("keepAliveMillis must be positive");
+            mPools.put(pool,new Config.PoolSettings(coreThreads,maxThreads,keepAliveMillis));
+            return this;
+        }
+
+        /**
+         * Sets how long a request may wait in the queue, with all
+         * workers busy, before a new worker is started, defaults to 100 milliseconds.
+         *
+         * @param millis the wait time threshold
+         * @return this builder
+         */
+        public Builder setWorkerSpawnThreshold(long millis){
+            mWorkerSpawnThreshold = millis < 0 ? 0 : millis;
+            return this;
+        }
+
+        /**
+         * Sets how callbacks are delivered to the main thread.
+         * Completed requests are delivered in batches: each batch runs at most
+         * <code>callbacks</code> handlers or for at most <code>sliceMillis</code>
+         * before yielding to the other messages of the looper, such as drawing.
+         * Defaults to 16 callbacks and 8 milliseconds.
+         *
+         * @param callbacks   the maximum number of callbacks run in a single batch
+         * @param sliceMillis the maximum time spent in a single batch
+         * @return this builder
+         */
+        public Builder setDeliveryBudget(int callbacks,long sliceMillis){
+            if (callbacks <= 0) throw new IllegalArgumentException("callbacks must be positive");
+            if (sliceMillis <= 0) throw new IllegalArgumentException("sliceMillis must be positive");
+            mDeliveryBudget = callbacks;
+            mDeliverySliceMillis = sliceMillis;
+            return this;
+        }
+
+        /**
+         * Sets the policy used to retry failed asynchronous requests,
+         * defaults to {@link com.baasbox.android.ExponentialBackoff}.
+         * Use {@link com.baasbox.android.RetryPolicy#NONE} to disable retries.
+         *
+         * @param policy the retry policy
+         * @return this builder
+         */
+        public Builder setRetryPolicy(RetryPolicy policy){
+            mRetryPolicy = policy == null ? RetryPolicy.NONE : policy;
+            return this;
+        }
+
+        /**
+         * Limits the rate of asynchronous requests sent to the endpoints that start
+         * with <code>prefix</code>, such as <code>document/*</code>, <code>push/*</code> or <code>file</code>.
+         * Each prefix owns a token bucket that holds up to <code>burst</code> permits,
+         * refilled at <code>permitsPerSecond</code>: requests that exceed the rate are
+         * delayed, never rejected. Endpoints are limited by their longest matching prefix.
+         *
+         * @param prefix           an endpoint prefix, relative to the api root
+         * @param permitsPerSecond the sustained rate of requests
+         * @param burst            the maximum number of requests sent at once
+         * @return this builder
+         */
+        public Builder setRateLimit(String prefix,double permitsPerSecond,int burst){
+            if (prefix == null) throw new IllegalArgumentException("prefix cannot be null");
+            if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond must be positive");
+            if (burst <= 0) throw new IllegalArgumentException("burst must be positive");
+            mRateLimits.put(prefix,new Config.RateLimit(permitsPerSecond,burst));
+            return this;
+        }
+
+        /**
+         * Sets how many queued offline writes are replayed at the same time
+         * when connectivity returns, defaults to 1 that preserves their order.
+         *
+         * @param requests the number of concurrent replays
+         * @return this builder
+         * @see com.baasbox.android.RequestOptions#QUEUE_OFFLINE
+         */
+        public Builder setOfflineReplayConcurrency(int requests){
+            if (requests <= 0) throw new IllegalArgumentException("requests must be positive");
+            mOfflineReplayConcurrency = requests;
+            return this;
+        }
+
+        /**
+         * Sets the adaptive limit of json and raw requests in flight.
+         * The limit starts at <code>initial</code> and moves between 1 and <code>max</code>:
+         * it grows while the round trip time of requests stays close to the lowest observed
+         * and shrinks when requests start queueing on the network.
+         * Defaults to 8 and 32, an <code>initial</code> limit of 0 disables it.
+         *
+         * @param initial the initial limit, or 0 to disable the limit
+         * @param max     the maximum limit
+         * @return this builder
+         */
+        public Builder setConcurrencyLimit(int initial,int max){
+            if (initial < 0) throw new IllegalArgumentException("initial cannot be negative");
+            if (initial > 0 && max < initial) throw new IllegalArgumentException("max must be at least initial");
+            mConcurrencyLimit = initial;
+            mMaxConcurrencyLimit = max;
+            return this;
+        }
+
+        /**
+         * Configures requests sent with {@link com.baasbox.android.RequestOptions#HEDGE}:
+         * a duplicate is sent when the response headers take longer than the <code>percentile</code>
+         * of recent latencies, and at most a <code>budget</code> fraction of requests is duplicated.
+         * Defaults to 0.95 and 0.1.
+         *
+         * @param percentile the percentile of latencies after which requests are hedged, between 0 and 1
+         * @param budget     the fraction of requests that can be hedged, between 0 and 1
+         * @return this builder
+         */
+        public Builder setHedging(double percentile,double budget){
+            if (percentile <= 0 || percentile > 1) throw new IllegalArgumentException("percentile must be in (0,1]");
+            if (budget < 0 || budget > 1) throw new IllegalArgumentException("budget must be in [0,1]");
+            mHedgePercentile = percentile;
+            mHedgeBudget = budget;
+            return this;
+        }
+
+        /**
+         * Configures the circuit breaker of families of endpoints, such as <code>document</code>
+         * or <code>plugin/name</code>: after <code>failureThreshold</code> consecutive connection
+         * or server errors, requests to the family fail with {@link com.baasbox.android.BaasCircuitOpenException}
+         * for <code>openMillis</code>, then a single request probes the server.
+         * Defaults to 5 failures and 10 seconds, a threshold of 0 disables the breaker.
+         *
+         * @param failureThreshold the consecutive failures that open the circuit, 0 to disable it
+         * @param openMillis       the milliseconds the circuit stays open
+         * @return this builder
+         */
+        public Builder setCircuitBreaker(int failureThreshold,long openMillis){
+            if (failureThreshold < 0) throw new IllegalArgumentException("failureThreshold cannot be negative");
+            if (openMillis <= 0) throw new IllegalArgumentException("openMillis must be positive");
+            mCircuitFailureThreshold = failureThreshold;
+            mCircuitOpenMillis = openMillis;
+            return this;
+        }
+
+        /**
+         * Configures the pool of connections kept alive between requests, over http and https.
+         * Defaults to 5 idle connections kept for 5 minutes.
+         *
+         * @param maxIdleConnections the maximum number of idle connections
+         * @param keepAliveMillis    the milliseconds an idle connection is kept open
+         * @return this builder
+         */
+        public Builder setConnectionPool(int maxIdleConnections,long keepAliveMillis){
+            if (maxIdleConnections < 0) throw new IllegalArgumentException("maxIdleConnections cannot be negative");
+            if (keepAliveMillis <= 0) throw new IllegalArgumentException("keepAliveMillis must be positive");
+            mConnectionPoolSize = maxIdleConnections;
+            mConnectionKeepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * Enables gzip compression of request bodies of at least <code>thresholdBytes</code>,
+         * use it only if the server, or a proxy in front of it, accepts gzip encoded bodies.
+         * If the server answers 415 to a compressed body, the request is sent again uncompressed
+         * and compression is disabled.
+         * Compression is disabled by default, a negative threshold disables it.
+         * Responses are always negotiated with gzip.
+         *
+         * @param thresholdBytes the minimum size of a body to compress, or a negative value to disable compression
+         * @return this builder
+         * @see com.baasbox.android.RequestOptions#NO_COMPRESSION
+         */
+        public Builder setRequestCompression(int thresholdBytes){
+            mRequestCompressionThreshold = thresholdBytes;
+            return this;
+        }
+
+        /**
+         * Enables the warm up of connections to the server: at init, when the application
+         * comes back to the foreground after <code>idleMillis</code> without requests,
+         * and on {@link BaasBox#prewarm()}, <code>connections</code> cheap requests are sent
+         * in parallel on a background thread, so that dns, tcp and tls setup are
+         * paid before the first user visible request.
+         * Warm up is disabled by default.
+         *
+         * @param connections the number of connections to open, 0 to disable warm up
+         * @param idleMillis  the milliseconds without requests after which connections are warmed again
+         * @return this builder
+         */
+        public Builder setConnectionPrewarming(int connections,long idleMillis){
+            if (connections < 0) throw new IllegalArgumentException("connections cannot be negative");
+            if (idleMillis <= 0) throw new IllegalArgumentException("idleMillis must be positive");
+            mPrewarmConnections = connections;
+            mPrewarmIdleMillis = idleMillis;
+            return this;
+        }
+
+        private Map<Config.WorkerPool,Config.PoolSettings> buildPools(){
+            Map<Config.WorkerPool,Config.PoolSettings> pools = new EnumMap<Config.WorkerPool, Config.PoolSettings>(mPools);
+            if (mWorkerThreads > 0 && !pools.containsKey(Config.WorkerPool.JSON)){
+                Config.WorkerPool json = Config.WorkerPool.JSON;
+                pools.put(json,new Config.PoolSettings(Math.min(json.defaultCoreThreads,mWorkerThreads),mWorkerThreads,Config.PoolSettings.DEFAULT_KEEP_ALIVE));
+            }
+            for (Config.WorkerPool pool: Config.WorkerPool.values()){
+                if (!pools.containsKey(pool)){
+                    pools.put(pool,new Config.PoolSettings(pool.defaultCoreThreads,pool.defaultMaxThreads,Config.PoolSettings.DEFAULT_KEEP_ALIVE));
+                }
+            }
+            return pools;
+        }
+
         public Builder setRestClient(RestClient client){
             mRestClient =client;
             return this;
@@ -497,7 +970,25 @@ public class BaasBox {
                               mApiBasepath,mAppCode,mAuthType,mTokenExpires,mWorkerThreads,
                               mKeyStoreRes,
                               mKeyStorePass,
-                              mSenderIds);
+                              mSenderIds,
+                              buildPools(),
+                              mWorkerSpawnThreshold,
+                              mDeliveryBudget,
+                              mDeliverySliceMillis,
+                              mRetryPolicy,
+                              mRateLimits,
+                              mOfflineReplayConcurrency,
+                              mConcurrencyLimit,
+                              mMaxConcurrencyLimit,
+                              mHedgePercentile,
+                              mHedgeBudget,
+                              mCircuitFailureThreshold,
+                              mCircuitOpenMillis,
+                              mConnectionPoolSize,
+                              mConnectionKeepAliveMillis,
+                              mRequestCompressionThreshold,
+                              mPrewarmConnections,
+                              mPrewarmIdleMillis);
         }
 
         /**
@@ -511,6 +1002,8 @@ public class BaasBox {
                         BaasBox box = new BaasBox(mContext, buildConfig(),plugins, mRestClient);
                         box.asyncDispatcher.start();
                         sDefaultClient = box;
+                        box.offlineQueue.start();
+                        box.prewarmer.start();
                     }
                 }
             }
@@ -546,6 +1039,95 @@ public class BaasBox {
             BASIC_AUTHENTICATION, SESSION_TOKEN
         }
 
+        /**
+         * The pools of workers asynchronous requests are routed to.
+         */
+        public static enum WorkerPool {
+            /**
+             * Small json requests
+             */
+            JSON(2,32),
+
+            /**
+             * Streaming downloads of files and assets
+             */
+            STREAM(0,4),
+
+            /**
+             * File uploads
+             */
+            UPLOAD(0,2),
+
+            /**
+             * Raw requests made through {@link com.baasbox.android.Rest}
+             */
+            REST(0,8);
+
+            /**
+             * The default number of threads always kept alive
+             */
+            public final int defaultCoreThreads;
+
+            /**
+             * The default maximum number of threads
+             */
+            public final int defaultMaxThreads;
+
+            WorkerPool(int defaultCoreThreads,int defaultMaxThreads) {
+                this.defaultCoreThreads = defaultCoreThreads;
+                this.defaultMaxThreads = defaultMaxThreads;
+            }
+        }
+
+        /**
+         * Sizing of an elastic worker pool.
+         */
+        public static final class PoolSettings {
+            static final long DEFAULT_KEEP_ALIVE = 30000;
+
+            /**
+             * The number of threads that are always kept alive
+             */
+            public final int coreThreads;
+
+            /**
+             * The maximum number of threads of the pool
+             */
+            public final int maxThreads;
+
+            /**
+             * Milliseconds a thread above the core size can stay idle
+             * before being retired
+             */
+            public final long keepAliveMillis;
+
+            PoolSettings(int coreThreads, int maxThreads, long keepAliveMillis) {
+                this.coreThreads = coreThreads;
+                this.maxThreads = maxThreads;
+                this.keepAliveMillis = keepAliveMillis;
+            }
+        }
+
+        /**
+         * A rate limit applied to a family of endpoints.
+         */
+        public static final class RateLimit {
+            /**
+             * The sustained rate of requests
+             */
+            public final double permitsPerSecond;
+
+            /**
+             * The maximum number of requests sent at once
+             */
+            public final int burst;
+
+            RateLimit(double permitsPerSecond, int burst) {
+                this.permitsPerSecond = permitsPerSecond;
+                this.burst = burst;
+            }
+        }
+
         /**
          * if <code>true</code> the SDK use HTTPs protocol. Default is
          * <code>false</code>.
@@ -597,11 +1179,101 @@ public class BaasBox {
         public final AuthType authenticationType;
 
         /**
-         * Number of threads to use for asynchronous requests.
-         * If it's <code>0</code> it uses a computed default value.
+         * Maximum number of threads to use for asynchronous json requests.
+         * If it's <code>0</code> it uses the default value.
          */
         public final int workerThreads;
 
+        /**
+         * Sizing of each worker pool.
+         */
+        public final Map<WorkerPool,PoolSettings> workerPools;
+
+        /**
+         * Milliseconds a request can wait for a busy pool before a new worker is started.
+         */
+        public final long workerSpawnThreshold;
+
+        /**
+         * Maximum number of callbacks delivered in a single batch on a looper.
+         */
+        public final int deliveryBudget;
+
+        /**
+         * Maximum milliseconds spent delivering a single batch on a looper.
+         */
+        public final long deliverySliceMillis;
+
+        /**
+         * The policy used to retry failed asynchronous requests.
+         */
+        public final RetryPolicy retryPolicy;
+
+        /**
+         * Rate limits by endpoint prefix.
+         */
+        public final Map<String,RateLimit> rateLimits;
+
+        /**
+         * The number of offline writes replayed concurrently.
+         */
+        public final int offlineReplayConcurrency;
+
+        /**
+         * The initial adaptive limit of requests in flight, 0 if disabled.
+         */
+        public final int concurrencyLimit;
+
+        /**
+         * The maximum adaptive limit of requests in flight.
+         */
+        public final int maxConcurrencyLimit;
+
+        /**
+         * The percentile of latencies after which hedged requests are duplicated.
+         */
+        public final double hedgePercentile;
+
+        /**
+         * The fraction of hedged requests that can be duplicated.
+         */
+        public final double hedgeBudget;
+
+        /**
+         * The consecutive failures that open the circuit of a family of endpoints, 0 if disabled.
+         */
+        public final int circuitFailureThreshold;
+
+        /**
+         * The milliseconds a circuit stays open before probing the server.
+         */
+        public final long circuitOpenMillis;
+
+        /**
+         * The maximum number of idle connections kept alive.
+         */
+        public final int connectionPoolSize;
+
+        /**
+         * The milliseconds an idle connection is kept alive.
+         */
+        public final long connectionKeepAliveMillis;
+
+        /**
+         * The minimum size of request bodies compressed with gzip, negative if disabled.
+         */
+        public final int requestCompressionThreshold;
+
+        /**
+         * The number of connections warmed up in advance, 0 if disabled.
+         */
+        public final int prewarmConnections;
+
+        /**
+         * The milliseconds without requests after which connections are warmed up again.
+         */
+        public final long prewarmIdleMillis;
+
         /**
          * True if session tokens are not auto refreshed upon expiration
          */
@@ -612,7 +1284,7 @@ public class BaasBox {
          */
         public final String[] senderIds;
 
-        Config(ExceptionHandler exceptionHandler, boolean useHttps, String httpCharset, int httpPort, int httpConnectionTimeout, int httpSocketTimeout, String apiDomain, String apiBasepath, String appCode, AuthType authenticationType,boolean sessionTokenExpires, int workerThreads,int keystoreRes,String keystorepass,String[] senderIds) {
+        Config(ExceptionHandler exceptionHandler, boolean useHttps, String httpCharset, int httpPort, int httpConnectionTimeout, int httpSocketTimeout, String apiDomain, String apiBasepath, String appCode, AuthType authenticationType,boolean sessionTokenExpires, int workerThreads,int keystoreRes,String keystorepass,String[] senderIds,Map<WorkerPool,PoolSettings> workerPools,long workerSpawnThreshold,int deliveryBudget,long deliverySliceMillis,RetryPolicy retryPolicy,Map<String,RateLimit> rateLimits,int offlineReplayConcurrency,int concurrencyLimit,int maxConcurrencyLimit,double hedgePercentile,double hedgeBudget,int circuitFailureThreshold,long circuitOpenMillis,int connectionPoolSize,long connectionKeepAliveMillis,int requestCompressionThreshold,int prewarmConnections,long prewarmIdleMillis) {
             this.exceptionHandler = exceptionHandler;
             this.useHttps = useHttps;
             this.httpCharset = httpCharset;
@@ -628,6 +1300,24 @@ public class BaasBox {
             this.password=keystorepass;
             this.sessionTokenExpires=sessionTokenExpires;
             this.senderIds = senderIds;
+            this.workerPools = Collections.unmodifiableMap(new EnumMap<WorkerPool, PoolSettings>(workerPools));
+            this.workerSpawnThreshold = workerSpawnThreshold;
+            this.deliveryBudget = deliveryBudget;
+            this.deliverySliceMillis = deliverySliceMillis;
+            this.retryPolicy = retryPolicy;
+            this.rateLimits = Collections.unmodifiableMap(new HashMap<String, RateLimit>(rateLimits));
+            this.offlineReplayConcurrency = offlineReplayConcurrency;
+            this.concurrencyLimit = concurrencyLimit;
+            this.maxConcurrencyLimit = maxConcurrencyLimit;
+            this.hedgePercentile = hedgePercentile;
+            this.hedgeBudget = hedgeBudget;
+            this.circuitFailureThreshold = circuitFailureThreshold;
+            this.circuitOpenMillis = circuitOpenMillis;
+            this.connectionPoolSize = connectionPoolSize;
+            this.connectionKeepAliveMillis = connectionKeepAliveMillis;
+            this.requestCompressionThreshold = requestCompressionThreshold;
+            this.prewarmConnections = prewarmConnections;
+            this.prewarmIdleMillis = prewarmIdleMillis;
         }
     }
 
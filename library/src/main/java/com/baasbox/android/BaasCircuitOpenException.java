@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+/**
+ * A subclass of {@link com.baasbox.android.BaasException} that is
+ * thrown without contacting the server when requests to a family of endpoints
+ * are failing, such as <code>document</code> or <code>plugin/name</code>.
+ *
+ * @see com.baasbox.android.BaasBox.Builder#setCircuitBreaker(int, long)
+ * @since 0.9.3
+ */
+public class BaasCircuitOpenException extends BaasException {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final long serialVersionUID = 4427319060478405937L;
+
+    /**
+     * The family of endpoints whose circuit is open.
+     */
+    public final String family;
+
+    /**
+     * The milliseconds after which a request will be let through
+     * to probe the endpoints again.
+     */
+    public final long retryAfterMillis;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    public BaasCircuitOpenException(String family, long retryAfterMillis) {
+        super("circuit open for " + family + ", retry in " + retryAfterMillis + " ms");
+        this.family = family;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
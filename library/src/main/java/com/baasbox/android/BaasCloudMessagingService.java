@@ -8,7 +8,7 @@ import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.json.JsonStructure;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,7 +21,8 @@ import com.baasbox.android.impl.Logger;
 import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.Responses;
 
 import java.util.LinkedHashMap;
 import java.util.Locale;
@@ -49,6 +50,7 @@ class BaasCredentialManager {
     private final Object lock = new Object();
     private volatile boolean loaded = false;
     private BaasUser current;
+    private volatile int generation;
 
     // --------------------------- CONSTRUCTORS ---------------------------
     public BaasCredentialManager(BaasBox box, Context context) {
@@ -106,8 +108,8 @@ class BaasCredentialManager {
             String user = c.getName();
             String pass = c.getPassword();
             HttpRequest req = loginRequest(user, pass, null);
-            HttpResponse resp = box.restClient.execute(req);
-            if (resp.getStatusLine().getStatusCode() / 100 == 2) {
+            HttpResponse resp = Responses.execute(box.restClient, req);
+            if (resp.status() / 100 == 2) {
                 JsonObject sessionObject = NetworkTask.parseJson(resp, box);
                 Logger.debug("!!!! %s !!!!!", sessionObject.toString());
                 String session = sessionObject.getObject("data").getString("X-BB-SESSION");
@@ -118,6 +120,7 @@ class BaasCredentialManager {
                 }
                 return false;
             }
+            resp.close();
         }
         return false;
     }
@@ -152,9 +155,17 @@ class BaasCredentialManager {
         synchronized (lock){
             current =null;
             loaded=false;
+            generation++;
         }
     }
 
+    /**
+     * Returns a number that changes each time the stored credentials change.
+     */
+    int generation() {
+        return generation;
+    }
+
     public void storeUser(BaasUser user) {
         synchronized (lock) {
             current = user;
@@ -164,6 +175,7 @@ class BaasCredentialManager {
                 persist(user);
             }
             loaded = true;
+            generation++;
         }
     }
 
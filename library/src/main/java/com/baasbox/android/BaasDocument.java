@@ -26,7 +26,7 @@ import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.json.JsonStructure;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 import java.util.*;
 
@@ -394,15 +394,20 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
             throw new IllegalStateException("this document is not bound to any remote entity");
         BaasDocument doc = new BaasDocument(collection);
         doc.id = id;
-        return doc.doRefresh(withAcl, flags, handler);
+        // the document is new so identical fetches can share it
+        return doc.doRefresh(withAcl, true, flags, handler);
     }
 
     private RequestToken doRefresh(boolean withAcl,int flags, BaasHandler<BaasDocument> handler) {
+        return doRefresh(withAcl, false, flags, handler);
+    }
+
+    private RequestToken doRefresh(boolean withAcl,boolean coalesce,int flags, BaasHandler<BaasDocument> handler) {
         BaasBox box = BaasBox.getDefaultChecked();
         if (handler == null) throw new IllegalArgumentException("handler cannot be null");
         if (id == null)
             throw new IllegalStateException("this document is not bound to any remote entity");
-        Refresh refresh = new Refresh(box, this,withAcl, flags, handler);
+        Refresh refresh = new Refresh(box, this,withAcl, coalesce, flags, handler);
         return box.submitAsync(refresh);
     }
 
@@ -1290,6 +1295,11 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
             this.id = document.id;
         }
 
+        @Override
+        protected boolean canQueueOffline() {
+            return true;
+        }
+
         @Override
         protected Void onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             if (document != null) document.id = null;
@@ -1326,6 +1336,11 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
             this.mode = mode;
         }
 
+        @Override
+        protected boolean canQueueOffline() {
+            return true;
+        }
+
         @Override
         protected BaasDocument onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             JsonObject jsonData = parseJson(response, box).getObject("data");
@@ -1388,10 +1403,16 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
         private final BaasDocument document;
 
         private RequestFactory.Param aclParam;
+        private final boolean coalesce;
 
         protected Refresh(BaasBox box, BaasDocument doc,boolean withAcl, int flags, BaasHandler<BaasDocument> handler) {
+            this(box, doc, withAcl, false, flags, handler);
+        }
+
+        protected Refresh(BaasBox box, BaasDocument doc,boolean withAcl,boolean coalesce, int flags, BaasHandler<BaasDocument> handler) {
             super(box, flags, handler);
             this.document = doc;
+            this.coalesce = coalesce;
             aclParam = withAcl? new RequestFactory.Param("withAcl","true"):null;
         }
 
@@ -1402,6 +1423,16 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
             return document;
         }
 
+        @Override
+        protected boolean canCoalesce() {
+            return coalesce;
+        }
+
+        @Override
+        protected boolean revalidate() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             String endpoint = box.requestFactory.getEndpoint("document/{}/{}", document.getCollection(), document.getId());
@@ -1438,6 +1469,11 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
             }
         }
 
+        @Override
+        protected boolean canCoalesce() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             String ep = box.requestFactory.getEndpoint("document/{}", collection);
@@ -1466,6 +1502,11 @@ public final class BaasDocument extends BaasObject implements Iterable<Map.Entry
             return entries.getArray("data").getObject(0).getLong("count");
         }
 
+        @Override
+        protected boolean canCoalesce() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             String ep = box.requestFactory.getEndpoint("document/{}", collection);
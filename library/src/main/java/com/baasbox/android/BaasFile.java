@@ -26,8 +26,8 @@ import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonException;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
-import org.apache.http.util.EntityUtils;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.Responses;
 
 import java.io.*;
 import java.net.URLConnection;
@@ -490,7 +490,8 @@ public class BaasFile extends BaasObject implements Parcelable{
         @Override
         protected String onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             try {
-                return EntityUtils.toString(response.getEntity());
+                // text without a declared charset defaults to latin-1
+                return Responses.toString(response, "ISO-8859-1");
             } catch (IOException e) {
                 throw new BaasIOException("unable to parse content");
             }
@@ -518,46 +519,38 @@ public class BaasFile extends BaasObject implements Parcelable{
         return doStream(-1, null, RequestOptions.DEFAULT, handler);
     }
 
+    /**
+     * Downloads the content of this file to <code>path</code>.
+     * An interrupted download continues from where it stopped
+     * when it is started again with the same path.
+     *
+     * @param path    the file to save the content to
+     * @param handler a callback to be invoked with the file and the path
+     * @return a {@link com.baasbox.android.RequestToken} to handle the request
+     */
     public RequestToken download(String path, BaasHandler<Pair<BaasFile, String>> handler) {
-        return doStream(id, null, -1, RequestOptions.DEFAULT, new SaveToDisk(this, path), handler);
+        return download(path, 1, RequestOptions.DEFAULT, handler);
     }
 
-
-    private static class SaveToDisk implements DataStreamHandler<Pair<BaasFile, String>> {
-        final String fileName;
-        final BaasFile file;
-        FileOutputStream out;
-
-        private SaveToDisk(BaasFile file, String fileName) {
-            this.fileName = fileName;
-            this.file = file;
-        }
-
-        @Override
-        public void startData(String id, long contentLength, String contentType) throws Exception {
-            out = new FileOutputStream(fileName);
-        }
-
-        @Override
-        public void onData(byte[] data, int read) throws Exception {
-            out.write(data, 0, read);
-        }
-
-        @Override
-        public Pair<BaasFile, String> endData(String id, long contentLength, String contentType) throws Exception {
-            return new Pair<BaasFile, String>(file, fileName);
-        }
-
-        @Override
-        public void finishStream(String id) {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    // swallow
-                }
-            }
-        }
+    /**
+     * Downloads the content of this file to <code>path</code>,
+     * splitting large contents in up to <code>segments</code> ranges
+     * downloaded in parallel.
+     * An interrupted download continues from where it stopped
+     * when it is started again with the same path and segments.
+     *
+     * @param path     the file to save the content to
+     * @param segments the maximum number of parallel ranges
+     * @param flags    {@link RequestOptions}
+     * @param handler  a callback to be invoked with the file and the path
+     * @return a {@link com.baasbox.android.RequestToken} to handle the request
+     */
+    public RequestToken download(String path, int segments, int flags, BaasHandler<Pair<BaasFile, String>> handler) {
+        if (id == null) throw new IllegalStateException("this file is not bound to any remote entity");
+        if (path == null) throw new IllegalArgumentException("path cannot be null");
+        BaasBox box = BaasBox.getDefaultChecked();
+        RangedDownload download = new RangedDownload(box, this, path, segments, flags, handler);
+        return box.submitAsync(download);
     }
 
     public RequestToken streamImage(int sizeIdx, BaasHandler<BaasFile> handler) {
@@ -898,6 +891,11 @@ public class BaasFile extends BaasObject implements Parcelable{
             }
         }
 
+        @Override
+        protected boolean canCoalesce() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             String endpoint = box.requestFactory.getEndpoint("file/details");
@@ -926,6 +924,11 @@ public class BaasFile extends BaasObject implements Parcelable{
             return file;
         }
 
+        @Override
+        protected BaasBox.Config.WorkerPool workerPool() {
+            return BaasBox.Config.WorkerPool.UPLOAD;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             return request;
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.impl.Dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pending result of an asynchronous request.
+ * <p>
+ * A future is obtained from the {@link com.baasbox.android.RequestToken}
+ * of a request through {@link RequestToken#future()}, it can be waited
+ * with a timeout, or composed with other futures through
+ * {@link #thenApply(com.baasbox.android.BaasFuture.Function)},
+ * {@link #thenCompose(com.baasbox.android.BaasFuture.Function)},
+ * {@link #allOf(BaasFuture[])} and {@link #anyOf(BaasFuture[])}.
+ * Composition functions are executed on the worker threads of the sdk,
+ * so they can do blocking work and never touch the main thread.
+ * </p>
+ * <p>
+ * Futures are independent of the handler of the request:
+ * they complete even if the request is suspended.
+ * </p>
+ *
+ * @param <R> the type of the value of the request
+ * @since 0.9.3
+ */
+public final class BaasFuture<R> implements Future<BaasResult<R>> {
+// ------------------------------ FIELDS ------------------------------
+
+    private final Dispatcher dispatcher;
+    private final RequestToken token;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile BaasResult<R> result;
+    private List<BaasHandler<R>> listeners;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    private BaasFuture(Dispatcher dispatcher, RequestToken token) {
+        this.dispatcher = dispatcher;
+        this.token = token;
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    static <R> BaasFuture<R> of(Dispatcher dispatcher, RequestToken token) {
+        final BaasFuture<R> future = new BaasFuture<R>(dispatcher, token);
+        boolean live = dispatcher.whenComplete(token.requestId, new BaasHandler<R>() {
+            @Override
+            public void handle(BaasResult<R> result) {
+                future.complete(result);
+            }
+        });
+        return live ? future : null;
+    }
+
+    /**
+     * Returns a future that completes when all the given futures complete.
+     * The returned future fails with the error of the first failed future in
+     * the given order, is cancelled if any of the futures was cancelled,
+     * and succeeds otherwise: the single values can then be read from each future.
+     *
+     * @param futures the futures to wait for
+     * @return a future that completes when all the <code>futures</code> complete
+     */
+    @SuppressWarnings("unchecked")
+    public static BaasFuture<Void> allOf(final BaasFuture<?>... futures) {
+        if (futures == null) throw new IllegalArgumentException("futures cannot be null");
+        final BaasFuture<Void> all = new BaasFuture<Void>(BaasBox.getDefaultChecked().asyncDispatcher(), null);
+        if (futures.length == 0) {
+            all.complete(BaasResult.<Void>success(null));
+            return all;
+        }
+        final AtomicInteger pending = new AtomicInteger(futures.length);
+        BaasHandler<Object> counter = new BaasHandler<Object>() {
+            @Override
+            public void handle(BaasResult<Object> result) {
+                if (pending.decrementAndGet() == 0) {
+                    all.complete(BaasFuture.<Void>combine(futures));
+                }
+            }
+        };
+        for (BaasFuture<?> future : futures) {
+            if (future == null) throw new IllegalArgumentException("futures cannot contain null");
+            ((BaasFuture<Object>) future).onDone(counter);
+        }
+        return all;
+    }
+
+    /**
+     * Returns a future that completes with the result of the first
+     * of the given futures to complete, whether it succeeded, failed or
+     * was cancelled.
+     *
+     * @param futures the futures to wait for
+     * @param <R>     the type of the value
+     * @return a future that completes when any of the <code>futures</code> completes
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> BaasFuture<R> anyOf(BaasFuture<? extends R>... futures) {
+        if (futures == null || futures.length == 0)
+            throw new IllegalArgumentException("futures cannot be empty");
+        final BaasFuture<R> any = new BaasFuture<R>(BaasBox.getDefaultChecked().asyncDispatcher(), null);
+        BaasHandler<R> first = new BaasHandler<R>() {
+            @Override
+            public void handle(BaasResult<R> result) {
+                any.complete(result);
+            }
+        };
+        for (BaasFuture<? extends R> future : futures) {
+            if (future == null) throw new IllegalArgumentException("futures cannot contain null");
+            ((BaasFuture<R>) future).onDone(first);
+        }
+        return any;
+    }
+
+    private static <T> BaasResult<T> combine(BaasFuture<?>[] futures) {
+        boolean canceled = false;
+        for (BaasFuture<?> future : futures) {
+            BaasResult<?> result = future.result;
+            if (result.isCanceled()) {
+                canceled = true;
+            } else if (result.isFailed()) {
+                return BaasResult.failure(result.error());
+            }
+        }
+        return canceled ? BaasResult.<T>cancel() : BaasResult.<T>success(null);
+    }
+
+    private static <T> BaasResult<T> propagate(BaasResult<?> result) {
+        return result.isCanceled() ? BaasResult.<T>cancel() : BaasResult.<T>failure(result.error());
+    }
+
+// ------------------------ INTERFACE METHODS ------------------------
+
+
+// --------------------- Interface Future ---------------------
+
+    /**
+     * Tries to cancel the computation of this future.
+     * If the future belongs to a request, the request is cancelled,
+     * or aborted if <code>mayInterruptIfRunning</code> is true.
+     *
+     * @param mayInterruptIfRunning if the request should be aborted
+     * @return true if the future was cancelled
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (token == null) {
+            return complete(BaasResult.<R>cancel());
+        }
+        if (!dispatcher.cancel(token.requestId, mayInterruptIfRunning)) {
+            return false;
+        }
+        // a request cancelled before running may have already
+        // completed this future through its listener
+        complete(BaasResult.<R>cancel());
+        return isCancelled();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        BaasResult<R> r = result;
+        return r != null && r.isCanceled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return result != null;
+    }
+
+    /**
+     * Waits for the request to complete and returns its result.
+     *
+     * @return the result of the request
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @Override
+    public BaasResult<R> get() throws InterruptedException {
+        done.await();
+        return result;
+    }
+
+    /**
+     * Waits at most <code>timeout</code> for the request to complete and
+     * returns its result.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of <code>timeout</code>
+     * @return the result of the request
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws TimeoutException     if the request did not complete in time
+     */
+    @Override
+    public BaasResult<R> get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns the token of the request of this future,
+     * or null if this future was derived from other futures.
+     *
+     * @return the token of the request
+     */
+    public RequestToken token() {
+        return token;
+    }
+
+    /**
+     * Returns a future that completes with the value of this future
+     * transformed by <code>function</code>.
+     * Failures and cancellation of this future are propagated
+     * without invoking the function.
+     *
+     * @param function the function to apply, executed on a worker thread
+     * @param <T>      the type of the transformed value
+     * @return a new future
+     */
+    public <T> BaasFuture<T> thenApply(final Function<? super R, ? extends T> function) {
+        if (function == null) throw new IllegalArgumentException("function cannot be null");
+        final BaasFuture<T> next = new BaasFuture<T>(dispatcher, null);
+        onDone(new BaasHandler<R>() {
+            @Override
+            public void handle(final BaasResult<R> result) {
+                if (!result.isSuccess()) {
+                    next.complete(BaasFuture.<T>propagate(result));
+                    return;
+                }
+                dispatcher.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (next.isDone()) return;
+                        BaasResult<T> mapped;
+                        try {
+                            mapped = BaasResult.<T>success(function.apply(result.value()));
+                        } catch (BaasException e) {
+                            mapped = BaasResult.failure(e);
+                        } catch (RuntimeException e) {
+                            mapped = BaasResult.failure(new BaasException(e));
+                        }
+                        next.complete(mapped);
+                    }
+                });
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Returns a future that completes with the result of the future
+     * returned by <code>function</code> applied to the value of this future.
+     * Use it to chain requests that depend on the value of a previous one.
+     * Failures and cancellation of this future are propagated
+     * without invoking the function.
+     *
+     * @param function the function to apply, executed on a worker thread
+     * @param <T>      the type of the value of the chained future
+     * @return a new future
+     */
+    public <T> BaasFuture<T> thenCompose(final Function<? super R, BaasFuture<T>> function) {
+        if (function == null) throw new IllegalArgumentException("function cannot be null");
+        final BaasFuture<T> next = new BaasFuture<T>(dispatcher, null);
+        onDone(new BaasHandler<R>() {
+            @Override
+            public void handle(final BaasResult<R> result) {
+                if (!result.isSuccess()) {
+                    next.complete(BaasFuture.<T>propagate(result));
+                    return;
+                }
+                dispatcher.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (next.isDone()) return;
+                        BaasFuture<T> chained;
+                        try {
+                            chained = function.apply(result.value());
+                            if (chained == null) {
+                                throw new BaasException("function returned a null future");
+                            }
+                        } catch (BaasException e) {
+                            next.complete(BaasResult.<T>failure(e));
+                            return;
+                        } catch (RuntimeException e) {
+                            next.complete(BaasResult.<T>failure(new BaasException(e)));
+                            return;
+                        }
+                        chained.onDone(new BaasHandler<T>() {
+                            @Override
+                            public void handle(BaasResult<T> result) {
+                                next.complete(result);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        return next;
+    }
+
+    private void onDone(BaasHandler<R> listener) {
+        synchronized (this) {
+            if (result == null) {
+                if (listeners == null) {
+                    listeners = new ArrayList<BaasHandler<R>>(2);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.handle(result);
+    }
+
+    private boolean complete(BaasResult<R> value) {
+        List<BaasHandler<R>> waiting;
+        synchronized (this) {
+            if (result != null) {
+                return false;
+            }
+            result = value;
+            waiting = listeners;
+            listeners = null;
+        }
+        done.countDown();
+        if (waiting != null) {
+            for (BaasHandler<R> listener : waiting) {
+                listener.handle(value);
+            }
+        }
+        return true;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * A function used to compose futures.
+     *
+     * @param <A> the type of the argument
+     * @param <B> the type of the returned value
+     */
+    public interface Function<A, B> {
+        /**
+         * Applies the function to <code>value</code>.
+         *
+         * @param value the value of the completed future
+         * @return the result of the function
+         * @throws BaasException to fail the derived future
+         */
+        B apply(A value) throws BaasException;
+    }
+}
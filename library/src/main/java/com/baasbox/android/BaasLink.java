@@ -24,8 +24,8 @@ import com.baasbox.android.impl.Util;
 import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
 
-import org.apache.http.HttpResponse;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -298,6 +298,11 @@ public final class BaasLink implements Parcelable{
             this.id=link.id;
         }
 
+        @Override
+        protected boolean canQueueOffline() {
+            return true;
+        }
+
         @Override
         protected Void onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             link.id =null;
@@ -329,6 +334,11 @@ public final class BaasLink implements Parcelable{
             this.destination=destination;
         }
 
+        @Override
+        protected boolean canQueueOffline() {
+            return true;
+        }
+
         @Override
         protected BaasLink onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             JsonObject data = parseJson(response,box).getObject("data");
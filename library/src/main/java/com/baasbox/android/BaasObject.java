@@ -19,7 +19,7 @@ import android.os.Parcelable;
 
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 
 /**
@@ -254,6 +254,11 @@ public abstract class BaasObject implements Parcelable {
             this.collection = collection;
         }
 
+        @Override
+        protected boolean canQueueOffline() {
+            return true;
+        }
+
         @Override
         protected Void onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             return null;
@@ -21,7 +21,7 @@ import com.baasbox.android.impl.Logger;
 import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -189,6 +189,11 @@ public class BaasQuery {
             return r;
         }
 
+        @Override
+        protected boolean canCoalesce() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             return box.requestFactory.get(endpoint,params);
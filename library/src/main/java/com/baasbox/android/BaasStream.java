@@ -16,10 +16,10 @@
 package com.baasbox.android;
 
 import com.baasbox.android.impl.DiskLruCache;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
+import com.baasbox.android.net.HttpResponse;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -49,7 +49,7 @@ public final class BaasStream extends FilterInputStream {
      * The id of the file.
      */
     public final String id;
-    private final HttpEntity entity;
+    private final HttpResponse response;
     private final DiskLruCache.Snapshot snapshot;
 
 // --------------------------- CONSTRUCTORS ---------------------------
@@ -58,26 +58,28 @@ public final class BaasStream extends FilterInputStream {
         this.id = id;
         this.contentLength = s.getLength(0);
         this.contentType = null;
-        this.entity = null;
+        this.response = null;
         this.snapshot = null;
     }
 
-    BaasStream(String id, HttpEntity entity) throws IOException {
-        super(getInput(entity));
-        this.entity = entity;
+    BaasStream(String id, HttpResponse response) throws IOException {
+        super(getInput(response));
+        this.response = response;
         this.snapshot = null;
         this.id = id;
-        Header contentTypeHeader = entity.getContentType();
-        String contentType = "application/octet-stream";
-        if (contentTypeHeader != null) {
-            contentType = contentTypeHeader.getValue();
+        String contentType = response.header("Content-Type");
+        if (contentType == null) {
+            contentType = "application/octet-stream";
         }
         this.contentType = contentType;
-        contentLength = entity.getContentLength();
+        contentLength = response.contentLength();
     }
 
-    static BufferedInputStream getInput(HttpEntity entity) throws IOException {
-        InputStream in = entity.getContent();
+    static BufferedInputStream getInput(HttpResponse response) throws IOException {
+        InputStream in = response.body();
+        if (in == null) {
+            in = new ByteArrayInputStream(new byte[0]);
+        }
         if (in instanceof BufferedInputStream) {
             return (BufferedInputStream) in;
         }
@@ -92,8 +94,8 @@ public final class BaasStream extends FilterInputStream {
     @Override
     public void close() throws IOException {
         super.close();
-        if (entity != null) {
-            entity.consumeContent();
+        if (response != null) {
+            response.close();
         }
         if (snapshot != null) snapshot.close();
     }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+/**
+ * A subclass of {@link com.baasbox.android.BaasException} that is
+ * thrown when a request could not complete before its deadline.
+ *
+ * @see com.baasbox.android.RequestOptions#timeout(long)
+ * @since 0.9.3
+ */
+public class BaasTimeoutException extends BaasException {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final long serialVersionUID = -2684396275610434715L;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    public BaasTimeoutException(String detailMessage) {
+        super(detailMessage);
+    }
+
+    public BaasTimeoutException(String detailMessage, Throwable throwable) {
+        super(detailMessage, throwable);
+    }
+}
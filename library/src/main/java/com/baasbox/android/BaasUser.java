@@ -22,7 +22,7 @@ import com.baasbox.android.impl.Logger;
 import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 import java.util.*;
 
@@ -1282,13 +1282,14 @@ public class BaasUser implements Parcelable {
         @Override
         protected Void onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
             box.store.clear();
-
+            box.offlineQueue.clear();
             return null;
         }
 
         @Override
         protected Void onClientError(int status, HttpResponse response, BaasBox box) throws BaasException {
             box.store.clear();
+            box.offlineQueue.clear();
             return super.onClientError(status, response, box);
         }
 
@@ -1326,6 +1327,11 @@ public class BaasUser implements Parcelable {
             return user;
         }
 
+        @Override
+        protected boolean revalidate() {
+            return true;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
             String endpoint;
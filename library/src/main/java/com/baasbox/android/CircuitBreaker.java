@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.os.SystemClock;
+
+import com.baasbox.android.impl.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops sending requests to a family of endpoints that keeps failing.
+ * <p>
+ * A circuit is closed while requests succeed, it opens after a number of
+ * consecutive connection errors or server errors, failing requests immediately
+ * with {@link com.baasbox.android.BaasCircuitOpenException}.
+ * When the open interval elapses the circuit is half open: the next request
+ * is sent as a probe while the others keep failing fast, the circuit closes if the probe
+ * succeeds and opens again, for twice as long, if it fails.
+ * </p>
+ */
+final class CircuitBreaker {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final int MAX_BACKOFF_SHIFT = 3;
+
+    private final int threshold;
+    private final long openMillis;
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    CircuitBreaker(int threshold, long openMillis) {
+        this.threshold = threshold;
+        this.openMillis = openMillis;
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Returns the family of an endpoint: its first segment,
+     * or the first two for plugins.
+     */
+    static String familyOf(String endpoint) {
+        int end = endpoint.indexOf('/');
+        if (end == -1) {
+            return endpoint;
+        }
+        String family = endpoint.substring(0, end);
+        if ("plugin".equals(family)) {
+            int next = endpoint.indexOf('/', end + 1);
+            return next == -1 ? endpoint : endpoint.substring(0, next);
+        }
+        return family;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns the circuit of <code>endpoint</code>, or null
+     * if the breaker is disabled.
+     */
+    Circuit circuit(String endpoint) {
+        if (threshold <= 0 || endpoint == null) {
+            return null;
+        }
+        String family = familyOf(endpoint);
+        Circuit circuit = circuits.get(family);
+        if (circuit == null) {
+            Circuit created = new Circuit(family);
+            circuit = circuits.putIfAbsent(family, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * Returns true if requests to the family of <code>endpoint</code> are failing fast.
+     */
+    boolean isOpen(String endpoint) {
+        Circuit circuit = circuits.get(familyOf(endpoint));
+        return circuit != null && circuit.isOpen();
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    final class Circuit {
+        private final String family;
+        private int failures;
+        private int trips;
+        private long openUntil;
+        private boolean halfOpen;
+        private boolean probing;
+
+        Circuit(String family) {
+            this.family = family;
+        }
+
+        /**
+         * Lets a request through or fails it fast.
+         *
+         * @throws BaasCircuitOpenException if the circuit is open
+         */
+        synchronized void acquire() throws BaasCircuitOpenException {
+            if (openUntil == 0) {
+                return;
+            }
+            long wait = openUntil - SystemClock.uptimeMillis();
+            if (wait > 0) {
+                throw new BaasCircuitOpenException(family, wait);
+            }
+            if (probing) {
+                throw new BaasCircuitOpenException(family, 0);
+            }
+            // this request probes the endpoints
+            halfOpen = true;
+            probing = true;
+        }
+
+        synchronized void success() {
+            if (openUntil != 0) {
+                Logger.info("circuit of %s closed", family);
+            }
+            failures = 0;
+            trips = 0;
+            openUntil = 0;
+            halfOpen = false;
+            probing = false;
+        }
+
+        synchronized void failure() {
+            if (halfOpen) {
+                trip();
+            } else if (openUntil == 0 && ++failures >= threshold) {
+                trip();
+            }
+        }
+
+        /**
+         * Invoked when a request ends without telling
+         * the health of the endpoints, such as when it is cancelled.
+         */
+        synchronized void release() {
+            probing = false;
+        }
+
+        synchronized boolean isOpen() {
+            return openUntil != 0;
+        }
+
+        private void trip() {
+            long interval = openMillis << Math.min(trips, MAX_BACKOFF_SHIFT);
+            trips++;
+            failures = 0;
+            halfOpen = false;
+            probing = false;
+            openUntil = SystemClock.uptimeMillis() + interval;
+            Logger.warn("circuit of %s open for %d ms", family, interval);
+        }
+    }
+}
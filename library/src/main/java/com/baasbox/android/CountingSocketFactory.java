@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * An {@link javax.net.ssl.SSLSocketFactory} that counts the sockets it creates,
+ * each one being a new connection with its own handshake.
+ */
+final class CountingSocketFactory extends SSLSocketFactory {
+// ------------------------------ FIELDS ------------------------------
+
+    private final SSLSocketFactory delegate;
+    private final AtomicLong created = new AtomicLong();
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    CountingSocketFactory(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    long created() {
+        return created.get();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        created.incrementAndGet();
+        return delegate.createSocket(s, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        created.incrementAndGet();
+        return delegate.createSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        created.incrementAndGet();
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        created.incrementAndGet();
+        return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        created.incrementAndGet();
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        created.incrementAndGet();
+        return delegate.createSocket(address, port, localAddress, localPort);
+    }
+}
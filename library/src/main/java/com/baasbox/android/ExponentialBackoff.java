@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.net.HttpRequest;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * The default {@link com.baasbox.android.RetryPolicy}: it retries
+ * I/O errors and temporary server errors (429, 502, 503 and 504),
+ * waiting a random time up to an exponentially growing, capped, delay.
+ * A delay requested by the server through Retry-After is honoured.
+ * <p>
+ * Only idempotent requests (GET, PUT and DELETE) are retried after a generic
+ * failure, POST and PATCH requests are retried only when the connection
+ * could not be established or the server refused them with 429 or 503.
+ * </p>
+ *
+ * @since 0.9.3
+ */
+public class ExponentialBackoff implements RetryPolicy {
+// ------------------------------ FIELDS ------------------------------
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 10000;
+    public static final long DEFAULT_MAX_RETRY_AFTER = 60000;
+
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long maxRetryAfter;
+    private final Random random = new Random();
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    public ExponentialBackoff() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_RETRY_AFTER);
+    }
+
+    /**
+     * Creates a new policy
+     *
+     * @param maxRetries    the maximum number of retries of a request
+     * @param baseDelay     the delay cap of the first retry in milliseconds, doubled at each retry
+     * @param maxDelay      the maximum delay between two attempts in milliseconds
+     * @param maxRetryAfter the longest Retry-After delay that is honoured, longer ones stop the retries
+     */
+    public ExponentialBackoff(int maxRetries, long baseDelay, long maxDelay, long maxRetryAfter) {
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries cannot be negative");
+        if (baseDelay <= 0 || maxDelay < baseDelay)
+            throw new IllegalArgumentException("delays must be positive and maxDelay not less than baseDelay");
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+// ------------------------ INTERFACE METHODS ------------------------
+
+
+// --------------------- Interface RetryPolicy ---------------------
+
+    @Override
+    public long retryDelay(int method, int attempt, BaasException error, long retryAfterMillis) {
+        if (attempt > maxRetries || !isRetryable(method, error)) {
+            return NO_RETRY;
+        }
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        long delay = nextLong(cap + 1);
+        if (retryAfterMillis >= 0) {
+            if (retryAfterMillis > maxRetryAfter) {
+                return NO_RETRY;
+            }
+            delay = Math.max(delay, retryAfterMillis);
+        }
+        return delay;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns true if a request with <code>method</code> that failed
+     * with <code>error</code> can be sent again.
+     *
+     * @param method the http method
+     * @param error  the error
+     * @return true if the request can be retried
+     */
+    protected boolean isRetryable(int method, BaasException error) {
+        if (error instanceof BaasApiException) {
+            int status = ((BaasApiException) error).httpStatus;
+            if (status == 429 || status == 503) {
+                // the server refused the request without processing it
+                return true;
+            }
+            return isIdempotent(method) && (status == 502 || status == 504);
+        } else if (error instanceof BaasIOException || error.getCause() instanceof IOException) {
+            return isIdempotent(method) || notConnected(error);
+        }
+        return false;
+    }
+
+    protected static boolean isIdempotent(int method) {
+        return method == HttpRequest.GET || method == HttpRequest.PUT || method == HttpRequest.DELETE;
+    }
+
+    private static boolean notConnected(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long nextLong(long bound) {
+        return (long) (random.nextDouble() * bound);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The immutable headers shared by every request made with the same credentials.
+ * Requests get a view of their own headers layered with the template,
+ * so that the template is never copied.
+ * The headers of the template win over those of the request, such as the app code and
+ * the credentials, except for the defaults that requests may replace.
+ */
+final class HeaderTemplate {
+// ------------------------------ FIELDS ------------------------------
+
+    private final Map<String, String> headers;
+    private final Set<String> defaults;
+    private final int generation;
+    private final BaasUser user;
+    private final String name;
+    private final String password;
+    private final String token;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    HeaderTemplate(Map<String, String> headers, Set<String> defaults, int generation, BaasUser user) {
+        this.headers = Collections.unmodifiableMap(new HashMap<String, String>(headers));
+        this.defaults = defaults;
+        this.generation = generation;
+        this.user = user;
+        this.name = user == null ? null : user.getName();
+        this.password = user == null ? null : user.getPassword();
+        this.token = user == null ? null : user.getToken();
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns true if this template was built for the current state of the credentials.
+     */
+    boolean matches(int generation, BaasUser user) {
+        if (this.generation != generation || this.user != user) {
+            return false;
+        }
+        // references are enough: credentials are replaced, not edited
+        return user == null || (name == user.getName() && password == user.getPassword() && token == user.getToken());
+    }
+
+    /**
+     * Returns the headers of a request: <code>extras</code>, that may be null,
+     * layered with this template. Changes are written to the extras,
+     * changes to the headers of the template that are not defaults are ignored.
+     */
+    Map<String, String> with(Map<String, String> extras) {
+        return new Layered(headers, defaults, extras);
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * A map that reads the fixed headers of the template first, then its own entries
+     * and then the defaults of the template.
+     * A default removed from the map is shadowed by a null entry.
+     */
+    private static final class Layered extends AbstractMap<String, String> {
+        private final Map<String, String> base;
+        private final Set<String> defaults;
+        private Map<String, String> extras;
+        private Set<Entry<String, String>> entries;
+
+        Layered(Map<String, String> base, Set<String> defaults, Map<String, String> extras) {
+            this.base = base;
+            this.defaults = defaults;
+            this.extras = extras;
+        }
+
+        private Map<String, String> extras() {
+            if (extras == null) {
+                extras = new HashMap<String, String>(4);
+            }
+            return extras;
+        }
+
+        private boolean overrides(Object key) {
+            return extras != null && extras.containsKey(key) && !isFixed(base, defaults, key);
+        }
+
+        @Override
+        public String get(Object key) {
+            if (overrides(key)) {
+                return extras.get(key);
+            }
+            return base.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (overrides(key)) {
+                return extras.get(key) != null;
+            }
+            return base.containsKey(key);
+        }
+
+        @Override
+        public String put(String key, String value) {
+            String previous = get(key);
+            if (!isFixed(base, defaults, key)) {
+                extras().put(key, value);
+            }
+            return previous;
+        }
+
+        @Override
+        public String remove(Object key) {
+            String previous = get(key);
+            if (isFixed(base, defaults, key)) {
+                return previous;
+            }
+            if (base.containsKey(key)) {
+                extras().put((String) key, null);
+            } else if (extras != null) {
+                extras.remove(key);
+            }
+            return previous;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (entries == null) {
+                entries = new AbstractSet<Entry<String, String>>() {
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        return new LayeredIterator(base, defaults, extras);
+                    }
+
+                    @Override
+                    public int size() {
+                        int size = 0;
+                        for (Iterator<Entry<String, String>> it = iterator(); it.hasNext(); it.next()) {
+                            size++;
+                        }
+                        return size;
+                    }
+                };
+            }
+            return entries;
+        }
+    }
+
+    private static boolean isFixed(Map<String, String> base, Set<String> defaults, Object key) {
+        return base.containsKey(key) && !defaults.contains(key);
+    }
+
+    /**
+     * Iterates the template entries that are not shadowed, then the extras
+     * that are neither removals nor shadowed by fixed headers.
+     */
+    private static final class LayeredIterator implements Iterator<Map.Entry<String, String>> {
+        private final Map<String, String> base;
+        private final Set<String> defaults;
+        private final Map<String, String> extras;
+        private Iterator<Map.Entry<String, String>> current;
+        private boolean inExtras;
+        private Map.Entry<String, String> next;
+
+        LayeredIterator(Map<String, String> base, Set<String> defaults, Map<String, String> extras) {
+            this.base = base;
+            this.defaults = defaults;
+            this.extras = extras;
+            this.current = base.entrySet().iterator();
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null) {
+                if (!current.hasNext()) {
+                    if (inExtras || extras == null) {
+                        return;
+                    }
+                    inExtras = true;
+                    current = extras.entrySet().iterator();
+                    continue;
+                }
+                Map.Entry<String, String> entry = current.next();
+                String key = entry.getKey();
+                boolean visible = inExtras ?
+                        entry.getValue() != null && !isFixed(base, defaults, key) :
+                        extras == null || !extras.containsKey(key) || !defaults.contains(key);
+                if (visible) {
+                    next = entry;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = next;
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
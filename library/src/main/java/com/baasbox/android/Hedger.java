@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.os.SystemClock;
+
+import com.baasbox.android.impl.Dispatcher;
+import com.baasbox.android.impl.Logger;
+import com.baasbox.android.impl.Util;
+import com.baasbox.android.net.CancellableRestClient;
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.Responses;
+import com.baasbox.android.net.RestClient;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Sends a duplicate of slow idempotent requests and keeps
+ * the response that arrives first.
+ * <p>
+ * A request is hedged when its response headers don't arrive within
+ * a percentile of the latencies recently observed.
+ * Hedges are paid from a budget that each hedgeable request refills
+ * by a fraction of a hedge, so that during an outage, when every request is slow,
+ * hedging adds at most that fraction of load.
+ * The first attempt runs on the calling thread, only hedges run on
+ * a small pool of their own.
+ * </p>
+ */
+final class Hedger {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final int WINDOW = 128;
+    private static final int MIN_SAMPLES = 16;
+    private static final long MIN_DELAY = 50;
+    private static final double MAX_BUDGET = 10;
+    private static final int MAX_HEDGES = 4;
+
+    private final RestClient client;
+    private final Dispatcher timer;
+    private final double percentile;
+    private final double ratio;
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private double budget;
+    private ThreadPoolExecutor attempts;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    Hedger(RestClient client, Dispatcher timer, double percentile, double ratio) {
+        this.client = client;
+        this.timer = timer;
+        this.percentile = percentile;
+        this.ratio = ratio;
+        this.budget = MAX_BUDGET;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    Race race(HttpRequest request) {
+        return new Race(request);
+    }
+
+    private synchronized void record(long millis) {
+        latencies[samples % WINDOW] = millis;
+        samples++;
+    }
+
+    /**
+     * Returns the delay after which a request is hedged
+     * or -1 if not enough latencies have been observed.
+     */
+    private synchronized long delay() {
+        budget = Math.min(MAX_BUDGET, budget + ratio);
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        int count = Math.min(samples, WINDOW);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+        return Math.max(MIN_DELAY, sorted[Math.max(0, index)]);
+    }
+
+    private synchronized boolean spend() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    private synchronized void refund() {
+        budget = Math.min(MAX_BUDGET, budget + 1);
+    }
+
+    private synchronized ThreadPoolExecutor attempts() {
+        if (attempts == null) {
+            attempts = Util.daemonPool("hedge", MAX_HEDGES);
+        }
+        return attempts;
+    }
+
+    private void cancel(HttpRequest request) {
+        if (client instanceof CancellableRestClient) {
+            ((CancellableRestClient) client).cancel(request);
+        }
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * The attempts made to execute one request.
+     */
+    final class Race {
+        private final HttpRequest primary;
+        private HttpRequest hedge;
+        private HttpRequest winner;
+        private HttpResponse response;
+        private BaasException error;
+        private int pending;
+        private boolean cancelled;
+
+        Race(HttpRequest primary) {
+            this.primary = primary;
+        }
+
+        HttpResponse execute() throws BaasException {
+            final long delay = delay();
+            if (delay < 0 || primary.remainingMillis() <= delay) {
+                // without a latency estimate or time for a second attempt
+                // there is nothing to hedge
+                return timed(primary);
+            }
+            synchronized (this) {
+                pending++;
+            }
+            ScheduledFuture<?> trigger = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    hedge(delay);
+                }
+            }, delay);
+            HttpResponse r = null;
+            BaasException e = null;
+            try {
+                r = timed(primary);
+            } catch (BaasException t) {
+                e = t;
+            } catch (RuntimeException t) {
+                cancel();
+                throw t;
+            } finally {
+                trigger.cancel(false);
+                finish(primary, r, e);
+            }
+            synchronized (this) {
+                try {
+                    // the primary failed, the hedge may still answer
+                    while (winner == null && pending > 0) {
+                        wait();
+                    }
+                } catch (InterruptedException t) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    throw new BaasCancellationException();
+                }
+                if (winner == null) {
+                    if (cancelled) {
+                        throw new BaasCancellationException();
+                    }
+                    throw error;
+                }
+                // the hedge is no longer needed
+                if (pending > 0) {
+                    Hedger.this.cancel(hedge);
+                }
+                return response;
+            }
+        }
+
+        /**
+         * Sends the hedge if the primary has not answered yet, invoked by the timer.
+         */
+        private void hedge(long delay) {
+            final HttpRequest second;
+            synchronized (this) {
+                if (winner != null || pending == 0 || cancelled || !spend()) {
+                    return;
+                }
+                second = new HttpRequest(primary.method, primary.url,
+                        new HashMap<String, String>(primary.headers), null);
+                second.deadline = primary.deadline;
+                hedge = second;
+                pending++;
+            }
+            Logger.debug("hedging %s after %d ms", primary, delay);
+            try {
+                attempts().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        HttpResponse r = null;
+                        BaasException e = null;
+                        try {
+                            r = timed(second);
+                        } catch (BaasException t) {
+                            e = t;
+                        } finally {
+                            finish(second, r, e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // too many hedges in flight
+                refund();
+                synchronized (this) {
+                    hedge = null;
+                    pending--;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Aborts every attempt of the request.
+         */
+        void cancel() {
+            HttpRequest second;
+            synchronized (this) {
+                cancelled = true;
+                second = hedge;
+            }
+            Hedger.this.cancel(primary);
+            if (second != null) {
+                Hedger.this.cancel(second);
+            }
+        }
+
+        private HttpResponse timed(HttpRequest request) throws BaasException {
+            final long start = SystemClock.uptimeMillis();
+            HttpResponse response = Responses.execute(client, request);
+            record(SystemClock.uptimeMillis() - start);
+            return response;
+        }
+
+        private void finish(HttpRequest request, HttpResponse r, BaasException e) {
+            boolean won = false;
+            boolean primaryPending;
+            synchronized (this) {
+                pending--;
+                if (winner == null && r != null && !cancelled) {
+                    winner = request;
+                    response = r;
+                    won = true;
+                } else if (r == null && (error == null || request == primary)) {
+                    // the attempt may have died with an unchecked exception
+                    error = e != null ? e : new BaasIOException("request failed");
+                }
+                primaryPending = request != primary && pending > 0;
+                notifyAll();
+            }
+            if (won && primaryPending) {
+                // the hedge won: unblock the calling thread
+                Hedger.this.cancel(primary);
+            } else if (!won && r != null) {
+                // the loser answered too
+                r.close();
+            }
+        }
+    }
+}
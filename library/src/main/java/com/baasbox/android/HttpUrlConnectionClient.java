@@ -19,20 +19,18 @@ import android.content.Context;
 import android.os.Build;
 
 import com.baasbox.android.impl.Logger;
+import com.baasbox.android.net.BufferPool;
+import com.baasbox.android.net.CancellableRestClient;
+import com.baasbox.android.net.ContentEncoding;
+import com.baasbox.android.net.HttpBody;
 import com.baasbox.android.net.HttpRequest;
-import com.baasbox.android.net.RestClient;
-
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.ProtocolVersion;
-import org.apache.http.StatusLine;
-import org.apache.http.entity.BasicHttpEntity;
-import org.apache.http.message.BasicHeader;
-import org.apache.http.message.BasicHttpResponse;
-import org.apache.http.message.BasicStatusLine;
-
-import java.io.File;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.NativeRestClient;
+import com.baasbox.android.net.PooledRestClient;
+import com.baasbox.android.net.Responses;
+
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -42,10 +40,15 @@ import java.net.ProtocolException;
 import java.net.URL;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocketFactory;
@@ -57,10 +60,9 @@ import javax.net.ssl.X509TrustManager;
 /**
  * Created by eto on 23/12/13.
  */
-class HttpUrlConnectionClient implements RestClient {
+class HttpUrlConnectionClient implements NativeRestClient, CancellableRestClient, PooledRestClient {
 // ------------------------------ FIELDS ------------------------------
 
-    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
     private static final HostnameVerifier ACCEPT_ALL =
             new HostnameVerifier() {
                 @Override
@@ -89,6 +91,10 @@ class HttpUrlConnectionClient implements RestClient {
     private BaasBox.Config config;
     private SSLSocketFactory mSSLSocketFactory;
     private HostnameVerifier mHostVerifier;
+    private final Map<HttpRequest, HttpURLConnection> mOpenConnections =
+            Collections.synchronizedMap(new WeakHashMap<HttpRequest, HttpURLConnection>());
+    private CountingSocketFactory mCountingFactory;
+    private final AtomicLong mSecureRequests = new AtomicLong();
 
 // --------------------------- CONSTRUCTORS ---------------------------
     HttpUrlConnectionClient() {
@@ -100,8 +106,7 @@ class HttpUrlConnectionClient implements RestClient {
         if (config.useHttps){
 
         }
-        disableReuseConnectionIfNecessary(config.useHttps);
-        enableHttpCacheIfAvailable(context,HTTP_CACHE_SIZE);
+        configureConnectionReuse(config);
     }
 
     private static SSLSocketFactory createSocketFactory(Context context,int certStoreId,String certPassword){
@@ -132,21 +137,18 @@ class HttpUrlConnectionClient implements RestClient {
         }
     }
 
-    private void disableReuseConnectionIfNecessary(boolean https) {
-        if (https || Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+    private void configureConnectionReuse(BaasBox.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+            // reusing connections before froyo could corrupt the pool
             System.setProperty("http.keepAlive", "false");
+            return;
         }
-    }
-
-    private void enableHttpCacheIfAvailable(Context context, long cacheSize) {
-        File httpCacheDir = new File(context.getCacheDir(), "baashttpcache");
-        try {
-            Class.forName("android.net.http.HttpResponseCache")
-                    .getMethod("install", File.class, long.class)
-                    .invoke(null, httpCacheDir, cacheSize);
-            Logger.debug("Installed http cache");
-        } catch (Exception e) {
-            Logger.debug("HttpResponseCache not available");
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(config.connectionPoolSize));
+        System.setProperty("http.keepAliveDuration", String.valueOf(config.connectionKeepAliveMillis));
+        if (config.useHttps) {
+            // the same factory is shared by all the connections so that they can be pooled
+            mCountingFactory = new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
         }
     }
 
@@ -156,9 +158,28 @@ class HttpUrlConnectionClient implements RestClient {
 // --------------------- Interface RestClient ---------------------
 
     @Override
-    public HttpResponse execute(HttpRequest request) throws BaasException {
+    public org.apache.http.HttpResponse execute(HttpRequest request) throws BaasException {
+        HttpResponse response = call(request);
         try {
-            HttpURLConnection connection = openConnection(request.url);
+            return Responses.toApache(response);
+        } catch (IOException e) {
+            response.close();
+            throw new BaasIOException(e);
+        }
+    }
+
+// --------------------- Interface NativeRestClient ---------------------
+
+    @Override
+    public HttpResponse call(HttpRequest request) throws BaasException {
+        if (request.remainingMillis() == 0) {
+            throw new BaasTimeoutException("deadline expired before connecting");
+        }
+        try {
+            HttpURLConnection connection = openConnection(request);
+            // the connection stays reachable until the request is released
+            // so that reads of the response can be aborted too
+            mOpenConnections.put(request, connection);
 
             for (String name : request.headers.keySet()) {
                 connection.addRequestProperty(name, request.headers.get(name));
@@ -176,40 +197,52 @@ class HttpUrlConnectionClient implements RestClient {
             if (responseCode == -1) {
                 throw new IOException("Connection failed");
             }
-            StatusLine line = new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1),
-                    responseCode, connection.getResponseMessage());
-            BasicHttpResponse response = new BasicHttpResponse(line);
-            response.setEntity(asEntity(connection));
-            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
-                if (header.getKey() != null) {
-                    Header h = new BasicHeader(header.getKey(), header.getValue().get(0));
-                    response.addHeader(h);
-                }
-            }
-            return response;
+            return new ConnectionResponse(connection, responseCode);
         } catch (IOException e) {
+            if (request.remainingMillis() == 0) {
+                throw new BaasTimeoutException("deadline expired", e);
+            }
             throw new BaasIOException(e);
         }
     }
 
-// -------------------------- OTHER METHODS --------------------------
+// --------------------- Interface PooledRestClient ---------------------
 
-    private HttpEntity asEntity(HttpURLConnection connection) {
-        BasicHttpEntity entity = new BasicHttpEntity();
-        InputStream in;
-        try {
-            in = connection.getInputStream();
-        } catch (IOException e) {
-            in = connection.getErrorStream();
+    /**
+     * {@inheritDoc}
+     * Connections are counted only when using https.
+     */
+    @Override
+    public long newConnections() {
+        return mCountingFactory == null ? -1 : mCountingFactory.created();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Connections are counted only when using https.
+     */
+    @Override
+    public long reusedConnections() {
+        if (mCountingFactory == null) {
+            return -1;
+        }
+        return Math.max(0, mSecureRequests.get() - mCountingFactory.created());
+    }
+
+// --------------------- Interface CancellableRestClient ---------------------
+
+    @Override
+    public void cancel(HttpRequest request) {
+        HttpURLConnection connection = mOpenConnections.remove(request);
+        if (connection != null) {
+            connection.disconnect();
         }
-        entity.setContent(in);
-        entity.setContentLength(connection.getContentLength());
-        entity.setContentEncoding(connection.getContentEncoding());
-        entity.setContentType(connection.getContentType());
-        return entity;
     }
 
-    private HttpURLConnection openConnection(String urlString) throws BaasIOException, IOException {
+// -------------------------- OTHER METHODS --------------------------
+
+    private HttpURLConnection openConnection(HttpRequest request) throws BaasIOException, IOException {
+        String urlString = request.url;
         URL url = null;
         try {
             url = new URL(urlString);
@@ -217,10 +250,16 @@ class HttpUrlConnectionClient implements RestClient {
             throw new BaasIOException("Error while parsing url " + urlString, e);
         }
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setConnectTimeout(config.httpConnectionTimeout);
-        connection.setReadTimeout(config.httpSocketTimeout);
+        if (mCountingFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(mCountingFactory);
+            mSecureRequests.incrementAndGet();
+        }
+        connection.setConnectTimeout(request.boundTimeout(config.httpConnectionTimeout));
+        connection.setReadTimeout(request.boundTimeout(config.httpSocketTimeout));
         connection.setInstanceFollowRedirects(true);
         connection.setDoInput(true);
+        // responses are revalidated by the sdk, a response cache would hide 304s
+        connection.setUseCaches(false);
 
         return connection;
     }
@@ -255,24 +294,142 @@ class HttpUrlConnectionClient implements RestClient {
 
     private static void addBody(HttpRequest request, HttpURLConnection connection) throws IOException {
         InputStream in = request.body;
-        if (in != null) {
-            connection.setDoOutput(true);
+        if (in == null) {
+            return;
+        }
+        connection.setDoOutput(true);
+        // without a streaming mode the whole body is buffered
+        // by the connection before being sent
+        if (in instanceof HttpBody) {
+            setStreamingMode(connection, ((HttpBody) in).length());
+            writeBody((HttpBody) in, connection);
+        } else {
+            setStreamingMode(connection, lengthOf(request, in));
             copyStream(in, connection.getOutputStream());
         }
     }
 
+    private static long lengthOf(HttpRequest request, InputStream in) {
+        String declared = request.headers.get("Content-Length");
+        if (declared != null) {
+            try {
+                return Long.parseLong(declared.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        if (in instanceof ByteArrayInputStream) {
+            return ((ByteArrayInputStream) in).available();
+        }
+        return -1;
+    }
+
+    private static void setStreamingMode(HttpURLConnection connection, long length) {
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) length);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+    }
+
+    private static void writeBody(HttpBody body, HttpURLConnection connection) throws IOException {
+        OutputStream out = connection.getOutputStream();
+        try {
+            body.writeTo(out);
+        } finally {
+            body.close();
+            out.close();
+        }
+    }
+
     private static void copyStream(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[1024];
-        int reads;
         try {
-            while ((reads = in.read(buffer)) != -1) {
-                out.write(buffer, 0, reads);
-            }
+            BufferPool.copy(in, out);
             out.flush();
         } finally {
             in.close();
             out.close();
         }
     }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * A response that reads headers and body straight from the connection.
+     */
+    private static final class ConnectionResponse implements HttpResponse {
+        private final HttpURLConnection connection;
+        private final int status;
+        private Map<String, List<String>> headers;
+        private InputStream body;
+
+        ConnectionResponse(HttpURLConnection connection, int status) {
+            this.connection = connection;
+            this.status = status;
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public String header(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public Map<String, List<String>> headers() {
+            if (headers == null) {
+                Map<String, List<String>> all = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+                for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                    // the status line is reported with a null name
+                    if (header.getKey() != null) {
+                        all.put(header.getKey(), header.getValue());
+                    }
+                }
+                headers = Collections.unmodifiableMap(all);
+            }
+            return headers;
+        }
+
+        @Override
+        public long contentLength() {
+            // the length of gzip content is not the length of what is read
+            return ContentEncoding.isGzip(connection.getContentEncoding()) ? -1 : connection.getContentLength();
+        }
+
+        @Override
+        public InputStream body() {
+            if (body == null) {
+                InputStream in;
+                try {
+                    in = connection.getInputStream();
+                } catch (IOException e) {
+                    in = connection.getErrorStream();
+                }
+                // the content is inflated while it is read
+                body = ContentEncoding.decode(in, connection.getContentEncoding());
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            InputStream in = body();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // swallow
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HTTP " + status;
+        }
+    }
 }
 
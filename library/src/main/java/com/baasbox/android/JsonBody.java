@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.json.JsonStructure;
+import com.baasbox.android.net.HttpBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * A request body that encodes a json structure directly
+ * to the connection, the length is computed by encoding
+ * the structure once without keeping the bytes.
+ */
+final class JsonBody extends HttpBody {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final JsonStructure json;
+    private final String charset;
+    private long length = -1;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    JsonBody(JsonStructure json, String charset) {
+        this.json = json;
+        this.charset = charset;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    @Override
+    public long length() throws IOException {
+        if (length < 0) {
+            CountingStream counter = new CountingStream();
+            writeTo(counter);
+            length = counter.count;
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), BUFFER_SIZE);
+        json.encode(writer);
+    }
+
+    @Override
+    protected boolean restart() {
+        // the structure is encoded again on each write
+        return true;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int oneByte) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+            this.count += count;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import com.baasbox.android.net.BufferPool;
+import com.baasbox.android.net.HttpBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * A multipart upload body made of the content stream
+ * between the encoded part headers.
+ * The length is known when the length of the content is,
+ * that is for files and byte arrays, otherwise the body is sent chunked.
+ * The content is copied to the connection through a pooled buffer
+ * and is never held in memory.
+ */
+final class MultipartBody extends HttpBody {
+// ------------------------------ FIELDS ------------------------------
+
+    private final byte[] head;
+    private final InputStream content;
+    private final long contentStart;
+    private final long contentLength;
+    private final byte[] tail;
+    private InputStream sequence;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    MultipartBody(byte[] head, InputStream content, byte[] tail) {
+        this.head = head;
+        this.content = content;
+        this.contentStart = positionOf(content);
+        this.contentLength = lengthOf(content);
+        this.tail = tail;
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Returns the number of bytes left in <code>in</code>,
+     * or -1 if it cannot be known without reading the stream.
+     */
+    static long lengthOf(InputStream in) {
+        if (in instanceof ByteArrayInputStream) {
+            return ((ByteArrayInputStream) in).available();
+        }
+        if (in instanceof FileInputStream) {
+            try {
+                FileInputStream file = (FileInputStream) in;
+                return file.getChannel().size() - file.getChannel().position();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position to restart <code>in</code> from,
+     * or -1 if it cannot be restarted.
+     */
+    private static long positionOf(InputStream in) {
+        if (in instanceof ByteArrayInputStream) {
+            in.mark(0);
+            return 0;
+        }
+        if (in instanceof FileInputStream) {
+            try {
+                return ((FileInputStream) in).getChannel().position();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    @Override
+    public long length() {
+        if (contentLength < 0) {
+            return -1;
+        }
+        return head.length + contentLength + tail.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(head);
+        BufferPool.copy(content, out);
+        out.write(tail);
+        out.flush();
+    }
+
+    @Override
+    protected boolean restart() throws IOException {
+        if (contentStart < 0) {
+            return false;
+        }
+        if (content instanceof FileInputStream) {
+            ((FileInputStream) content).getChannel().position(contentStart);
+        } else {
+            content.reset();
+        }
+        sequence = null;
+        return true;
+    }
+
+    // clients that read the body get the parts in sequence
+    // instead of a copy in memory
+
+    private InputStream sequence() {
+        if (sequence == null) {
+            sequence = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(head), content, new ByteArrayInputStream(tail))));
+        }
+        return sequence;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return sequence().read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        return sequence().read(buffer, offset, count);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return sequence == null ? 0 : sequence.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        content.close();
+    }
+}
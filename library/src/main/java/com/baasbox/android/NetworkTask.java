@@ -15,16 +15,24 @@
 
 package com.baasbox.android;
 
+import com.baasbox.android.impl.Constants;
 import com.baasbox.android.impl.Logger;
 import com.baasbox.android.impl.Task;
 import com.baasbox.android.json.JsonException;
 import com.baasbox.android.json.JsonObject;
+import com.baasbox.android.net.CancellableRestClient;
+import com.baasbox.android.net.HttpBody;
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.util.EntityUtils;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.Responses;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 /**
  * Created by Andrea Tortorella on 20/01/14.
@@ -34,6 +42,17 @@ abstract class NetworkTask<R> extends Task<R> {
 
     private final BaasBox box;
     private boolean retryOnFailedLogin;
+    private HttpRequest prepared;
+    private volatile HttpRequest running;
+    private volatile Hedger.Race race;
+    private final boolean retryable;
+    private final boolean queueOffline;
+    private final boolean hedge;
+    private final boolean compress;
+    private int attempts;
+    private int lastMethod;
+    private InputStream lastBody;
+    private long retryAfter = -1;
 
 // --------------------------- CONSTRUCTORS ---------------------------
     protected NetworkTask(BaasBox box, int flags, BaasHandler<R> handler) {
@@ -43,14 +62,21 @@ abstract class NetworkTask<R> extends Task<R> {
     protected NetworkTask(BaasBox box, int flags, BaasHandler<R> handler, boolean retryLogin) {
         super(flags, handler);
         this.box = box;
+        this.retryable = (flags & Constants.FLAG_NO_RETRY) == 0;
+        this.queueOffline = (flags & Constants.FLAG_QUEUE_OFFLINE) != 0 && canQueueOffline();
+        this.hedge = (flags & Constants.FLAG_HEDGE) != 0;
+        this.compress = (flags & Constants.FLAG_NO_COMPRESSION) == 0;
         retryOnFailedLogin = retryLogin && (!box.config.sessionTokenExpires);
     }
 
 // -------------------------- OTHER METHODS --------------------------
 
     protected final R parseResponse(HttpResponse response, BaasBox box) throws BaasException {
-        final int status = response.getStatusLine().getStatusCode();
+        final int status = response.status();
         final int statusClass = status / 100;
+        if (status == 429 || status == 503) {
+            retryAfter = parseRetryAfter(response);
+        }
         try {
             switch (statusClass) {
                 case 1:
@@ -99,26 +125,33 @@ abstract class NetworkTask<R> extends Task<R> {
     }
 
     protected static JsonObject parseJson(HttpResponse response, BaasBox box) throws BaasException {
-        HttpEntity entity = response.getEntity();
-        if (entity != null) {
-            String content = null;
-            try {
-                JsonObject decoded;
-                content = EntityUtils.toString(entity, box.config.httpCharset);
-                if (content == null) {
-                    decoded = new JsonObject();
-                } else {
-                    decoded = JsonObject.decode(content);
-                }
-                return decoded;
-            } catch (IOException e) {
-                throw new BaasIOException("Could not parse server response", e);
-            } catch (JsonException e) {
-                Logger.error("Not a json content: %s", content);
-                throw new BaasIOException("Could not parse server response: " + response, e);
+        RevalidationCache.Cached cached = null;
+        if (response instanceof RevalidationCache.Cached) {
+            cached = (RevalidationCache.Cached) response;
+            JsonObject json = cached.parsed();
+            if (json != null) {
+                // not modified since it was last parsed
+                return json;
             }
-        } else {
-            throw new BaasIOException("Could not parse server response: " + response);
+        }
+        String content = null;
+        try {
+            content = Responses.toString(response, box.config.httpCharset);
+        } catch (IOException e) {
+            throw new BaasIOException("Could not parse server response", e);
+        }
+        if (content == null) {
+            return new JsonObject();
+        }
+        try {
+            JsonObject decoded = JsonObject.decode(content);
+            if (cached != null) {
+                cached.remember(decoded);
+            }
+            return decoded;
+        } catch (JsonException e) {
+            Logger.error("Not a json content: %s", content);
+            throw new BaasIOException("Could not parse server response: " + response, e);
         }
     }
 
@@ -127,6 +160,82 @@ abstract class NetworkTask<R> extends Task<R> {
         throw new BaasServerException(status, jsonResponse);
     }
 
+    private static long parseRetryAfter(HttpResponse response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // not delta seconds, try an http date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            Logger.warn("Invalid Retry-After header: %s", value);
+            return -1;
+        }
+    }
+
+    @Override
+    protected long retryDelay(BaasException error) {
+        if (!retryable || lastMethod == 0 || !rewind(lastBody)) {
+            return RetryPolicy.NO_RETRY;
+        }
+        attempts++;
+        return box.config.retryPolicy.retryDelay(lastMethod, attempts, error, retryAfter);
+    }
+
+    /**
+     * Prepares the body consumed by the last attempt to be sent again,
+     * tasks may send the same request on each attempt.
+     *
+     * @return false if the body cannot be sent again
+     */
+    private static boolean rewind(InputStream body) {
+        if (body == null) {
+            return true;
+        }
+        try {
+            if (body instanceof HttpBody) {
+                return ((HttpBody) body).rewind();
+            } else if (body instanceof ByteArrayInputStream) {
+                body.reset();
+                return true;
+            }
+        } catch (IOException e) {
+            Logger.info(e, "Unable to rewind a request body");
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if this task can be kept in the offline queue
+     * when the device is not connected.
+     * Only writes whose request can be replayed as is should return true.
+     *
+     * @return true if the task can be queued offline
+     */
+    protected boolean canQueueOffline() {
+        return false;
+    }
+
+    @Override
+    protected boolean defer(BaasException error) {
+        if (!queueOffline) {
+            return false;
+        }
+        if (error instanceof BaasCircuitOpenException) {
+            // the server keeps failing: hold the write until a probe is let through
+            return box.offlineQueue.park(this, ((BaasCircuitOpenException) error).retryAfterMillis);
+        }
+        return error instanceof BaasIOException && box.offlineQueue.park(this, -1);
+    }
+
     private boolean attemptRefreshToken(BaasBox box) {
         try {
             return box.store.refreshTokenRequest(seq());
@@ -136,9 +245,55 @@ abstract class NetworkTask<R> extends Task<R> {
         }
     }
 
+    /**
+     * Returns true if the result of this task can be shared
+     * with identical requests that are in flight at the same time.
+     * Only tasks that don't update existing objects should return true.
+     *
+     * @return true if the task can be coalesced
+     */
+    protected boolean canCoalesce() {
+        return false;
+    }
+
+    @Override
+    protected final String coalesceKey() {
+        if (!canCoalesce()) {
+            return null;
+        }
+        HttpRequest request = prepare();
+        if (request == null || request.method != HttpRequest.GET) {
+            return null;
+        }
+        String identity = request.headers.get(RequestFactory.BB_SESSION_HEADER_NAME);
+        if (identity == null) {
+            identity = request.headers.get(RequestFactory.BASIC_AUTH_HEADER_NAME);
+        }
+        return getClass().getName() + ' ' + request.url + ' ' + identity;
+    }
+
+    @Override
+    protected final boolean isRemote() {
+        return true;
+    }
+
+    @Override
+    protected final String endpoint() {
+        HttpRequest request = prepare();
+        return request == null ? null : box.requestFactory.endpointOf(request.url);
+    }
+
+    private HttpRequest prepare() {
+        if (prepared == null) {
+            prepared = request(box);
+        }
+        return prepared;
+    }
+
     @Override
     protected R asyncCall() throws BaasException {
-        HttpRequest request = request(box);
+        HttpRequest request = prepared == null ? request(box) : prepared;
+        prepared = null;
         if (request == null) {
             return onSkipRequest();
         }
@@ -146,9 +301,123 @@ abstract class NetworkTask<R> extends Task<R> {
         if (val != null) {
             return val;
         }
+        if (queueOffline) {
+            box.offlineQueue.checkOwner(this);
+        }
+        if (queueOffline && box.offlineQueue.shouldDefer(this)) {
+            // keep queued writes in order
+            throw new BaasIOException("device is offline");
+        }
+        final CircuitBreaker.Circuit circuit = box.breaker.circuit(box.requestFactory.endpointOf(request.url));
+        String revalidationKey = null;
+        boolean conditional = false;
+        if (request.method == HttpRequest.GET && revalidate()) {
+            revalidationKey = RevalidationCache.keyOf(box.store.currentUser(), request.url);
+            conditional = box.revalidation.makeConditional(revalidationKey, request);
+        }
+        final boolean compressed = compress && box.requestFactory.compress(request);
+        request.deadline = deadline();
+        lastMethod = request.method;
+        lastBody = request.body;
+        retryAfter = -1;
         Logger.info("requested %s", request);
-        HttpResponse response = box.restClient.execute(request);
-        return parseResponse(response, box);
+        box.prewarmer.touch();
+        running = request;
+        try {
+            if (circuit != null) {
+                // acquired right before sending, every path
+                // from here on releases a half open probe
+                circuit.acquire();
+            }
+            HttpResponse response;
+            try {
+                if (hedge && request.method == HttpRequest.GET) {
+                    race = box.hedger.race(request);
+                    response = race.execute();
+                } else {
+                    response = Responses.execute(box.restClient, request);
+                }
+            } catch (BaasException e) {
+                if (circuit != null) {
+                    if (e instanceof BaasIOException && !isInterrupted()) {
+                        circuit.failure();
+                    } else {
+                        circuit.release();
+                    }
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                if (circuit != null) {
+                    circuit.release();
+                }
+                throw e;
+            }
+            if (circuit != null) {
+                if (response.status() >= 500) {
+                    circuit.failure();
+                } else {
+                    circuit.success();
+                }
+            }
+            if (isInterrupted()) {
+                // the client could not abort the connection in time
+                response.close();
+                throw new BaasCancellationException();
+            }
+            if (compressed && response.status() == 415) {
+                // the server does not understand gzip bodies: send it again as is
+                response.close();
+                box.requestFactory.rejectCompression();
+                running = null;
+                race = null;
+                return asyncCall();
+            }
+            if (revalidationKey != null) {
+                response = revalidated(revalidationKey, conditional, response);
+                if (response == null) {
+                    // the local copy was evicted after the request was made conditional
+                    running = null;
+                    race = null;
+                    return asyncCall();
+                }
+            }
+            return parseResponse(response, box);
+        } finally {
+            running = null;
+            race = null;
+        }
+    }
+
+    private HttpResponse revalidated(String key, boolean conditional, HttpResponse response) throws BaasException {
+        if (conditional && response.status() == 304) {
+            response.close();
+            return box.revalidation.notModified(key);
+        }
+        if (response.status() / 100 != 2) {
+            return response;
+        }
+        try {
+            return box.revalidation.store(key, response);
+        } catch (IOException e) {
+            throw new BaasIOException(e);
+        }
+    }
+
+    @Override
+    protected void onInterrupt() {
+        if (queueOffline) {
+            box.offlineQueue.cancel(this);
+        }
+        Hedger.Race hedged = race;
+        if (hedged != null) {
+            hedged.cancel();
+            return;
+        }
+        HttpRequest request = running;
+        if (request != null && box.restClient instanceof CancellableRestClient) {
+            Logger.debug("aborting connection of %s", request);
+            ((CancellableRestClient) box.restClient).cancel(request);
+        }
     }
 
     protected abstract HttpRequest request(BaasBox box);
@@ -160,4 +429,12 @@ abstract class NetworkTask<R> extends Task<R> {
     protected R getFromCache(BaasBox box) throws BaasException {
         return null;
     }
+
+    /**
+     * Returns true if the response of this GET should be kept and
+     * revalidated by the next request to the same url.
+     */
+    protected boolean revalidate() {
+        return false;
+    }
 }
\ No newline at end of file
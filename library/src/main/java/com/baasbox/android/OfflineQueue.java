@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.baasbox.android.impl.Base64;
+import com.baasbox.android.impl.Constants;
+import com.baasbox.android.impl.Logger;
+import com.baasbox.android.json.JsonException;
+import com.baasbox.android.json.JsonObject;
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable queue of mutating requests that failed because the
+ * device was offline.
+ * <p>
+ * Each queued request is written to its own file in the private files
+ * directory before being parked, so that it survives process death.
+ * Requests are replayed in order when connectivity returns, at most
+ * {@link com.baasbox.android.BaasBox.Config#offlineReplayConcurrency} at a time.
+ * Requests are also queued while the circuit of their endpoints is open,
+ * and replayed when it lets a probe through.
+ * While the process is alive the original task is replayed and its result delivered
+ * to its own handler, requests restored after a restart are replayed as raw requests
+ * that are suspended until the application resumes their tokens.
+ * </p>
+ * <p>
+ * Each request remembers the user that queued it: requests of a user other than
+ * the current one fail instead of being replayed, and logging out fails all the
+ * requests still in the queue.
+ * </p>
+ */
+final class OfflineQueue {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final String OFFLINE_DIR = "baasbox-offline";
+    private static final String SUFFIX = ".req";
+    private static final long DRAIN_DELAY = 30000;
+    private static final long MIN_DRAIN_DELAY = 1000;
+
+    private final BaasBox box;
+    private final File dir;
+    private final int concurrency;
+    private final Handler handler;
+    private final AtomicLong ids = new AtomicLong();
+    private final TreeMap<Long, Entry> pending = new TreeMap<Long, Entry>();
+    private final Map<NetworkTask<?>, Entry> entries = new IdentityHashMap<NetworkTask<?>, Entry>();
+    private final List<RequestToken> restored = new ArrayList<RequestToken>();
+    private int running;
+    private boolean started;
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final BroadcastReceiver connectivity = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isConnected()) {
+                Logger.debug("connectivity restored: replaying offline requests");
+                drain();
+            }
+        }
+    };
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    OfflineQueue(BaasBox box, int concurrency) {
+        this.box = box;
+        this.concurrency = concurrency;
+        this.dir = new File(box.context.getFilesDir(), OFFLINE_DIR);
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    void start() {
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+        }
+        restore();
+        box.context.registerReceiver(connectivity, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        drain();
+    }
+
+    void stop() {
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            started = false;
+        }
+        handler.removeCallbacks(drainer);
+        box.context.unregisterReceiver(connectivity);
+    }
+
+    /**
+     * Returns true if <code>task</code> must not be sent now:
+     * the device is offline or earlier requests are still queued.
+     */
+    synchronized boolean shouldDefer(NetworkTask<?> task) {
+        if (entries.containsKey(task)) {
+            return !isConnected();
+        }
+        return !isConnected() || !pending.isEmpty() || running > 0;
+    }
+
+    /**
+     * Parks a task whose request failed for connectivity reasons,
+     * persisting it the first time it is parked.
+     *
+     * @param retryAfterMillis the time after which the server can be tried again,
+     *                         or a negative value if it is not known
+     * @return false if the task could not be persisted and must fail
+     */
+    boolean park(NetworkTask<?> task, long retryAfterMillis) {
+        final boolean connected;
+        synchronized (this) {
+            if (!started) {
+                return false;
+            }
+            Entry entry = entries.get(task);
+            if (entry == null) {
+                long id = ids.getAndIncrement();
+                File file = new File(dir, String.format(Locale.US, "%019d%s", id, SUFFIX));
+                String owner = currentOwner();
+                if (!persist(task, owner, file)) {
+                    return false;
+                }
+                entry = new Entry(id, file, task, owner);
+                if (!listen(entry)) {
+                    // the task has already been aborted
+                    delete(file);
+                    return false;
+                }
+                entries.put(task, entry);
+            } else if (entry.running) {
+                entry.running = false;
+                running--;
+            }
+            pending.put(entry.id, entry);
+            connected = isConnected();
+        }
+        Logger.info("%s queued until the device is back online", task);
+        if (connected) {
+            // the network is up but the server is not reachable
+            // try again later, connectivity changes will anticipate the replay
+            handler.removeCallbacks(drainer);
+            handler.postDelayed(drainer, retryAfterMillis < 0 ? DRAIN_DELAY : Math.max(retryAfterMillis, MIN_DRAIN_DELAY));
+        }
+        return true;
+    }
+
+    /**
+     * Invoked when a task is cancelled: parked tasks are removed
+     * from the queue and completed as cancelled.
+     */
+    void cancel(NetworkTask<?> task) {
+        synchronized (this) {
+            Entry entry = entries.get(task);
+            if (entry == null || entry.running) {
+                return;
+            }
+            pending.remove(entry.id);
+            entries.remove(task);
+            delete(entry.file);
+        }
+        box.asyncDispatcher().replay(task);
+    }
+
+    /**
+     * Fails the replay of <code>task</code> if it was queued by a user
+     * other than the current one or if the queue was cleared,
+     * so that queued writes are never sent with the credentials of someone else.
+     *
+     * @throws BaasException if the task must not be sent
+     */
+    void checkOwner(NetworkTask<?> task) throws BaasException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(task);
+        }
+        if (entry == null) {
+            return;
+        }
+        if (entry.discarded) {
+            throw new BaasException("offline request discarded on logout");
+        }
+        String owner = currentOwner();
+        if (entry.owner == null ? owner != null : !entry.owner.equals(owner)) {
+            throw new BaasException("offline request queued by another user");
+        }
+    }
+
+    /**
+     * Fails all the queued requests, invoked when the current user logs out.
+     */
+    void clear() {
+        List<Entry> discarded = new ArrayList<Entry>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                entry.discarded = true;
+                if (!entry.running) {
+                    pending.remove(entry.id);
+                    entry.running = true;
+                    running++;
+                    discarded.add(entry);
+                }
+            }
+        }
+        for (Entry entry : discarded) {
+            // the replay fails right away and completes the entry
+            box.asyncDispatcher().replay(entry.task);
+        }
+    }
+
+    private String currentOwner() {
+        BaasUser user = box.store.currentUser();
+        return user == null ? null : user.getName();
+    }
+
+    synchronized int size() {
+        return pending.size() + running;
+    }
+
+    synchronized List<RequestToken> restoredRequests() {
+        return Collections.unmodifiableList(new ArrayList<RequestToken>(restored));
+    }
+
+    void drain() {
+        List<Entry> replay = new ArrayList<Entry>();
+        synchronized (this) {
+            if (!started || !isConnected()) {
+                return;
+            }
+            while (running < concurrency && !pending.isEmpty()) {
+                Entry entry = pending.pollFirstEntry().getValue();
+                entry.running = true;
+                running++;
+                replay.add(entry);
+            }
+        }
+        for (Entry entry : replay) {
+            Logger.debug("replaying %s", entry.task);
+            box.asyncDispatcher().replay(entry.task);
+        }
+    }
+
+    private boolean listen(final Entry entry) {
+        return box.asyncDispatcher().whenComplete(entry.task.seq(), new BaasHandler<Object>() {
+            @Override
+            public void handle(BaasResult<Object> result) {
+                complete(entry);
+            }
+        });
+    }
+
+    private void complete(Entry entry) {
+        synchronized (this) {
+            if (entries.remove(entry.task) != null) {
+                pending.remove(entry.id);
+                if (entry.running) {
+                    entry.running = false;
+                    running--;
+                }
+                delete(entry.file);
+            }
+        }
+        drain();
+    }
+
+    private boolean isConnected() {
+        try {
+            ConnectivityManager manager = (ConnectivityManager) box.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo info = manager == null ? null : manager.getActiveNetworkInfo();
+            return info != null && info.isConnected();
+        } catch (SecurityException e) {
+            // without ACCESS_NETWORK_STATE we cannot tell, so we assume a connection
+            return true;
+        }
+    }
+
+    private void restore() {
+        File[] files = dir.listFiles();
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                delete(file);
+                continue;
+            }
+            long id;
+            Replay replay;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+                replay = Replay.read(box, file);
+            } catch (Exception e) {
+                Logger.error(e, "Discarding unreadable offline request %s", file);
+                delete(file);
+                continue;
+            }
+            ids.set(Math.max(ids.get(), id + 1));
+            RequestToken token = new RequestToken(box.asyncDispatcher().park(replay));
+            Entry entry = new Entry(id, file, replay, replay.owner);
+            listen(entry);
+            synchronized (this) {
+                restored.add(token);
+                entries.put(replay, entry);
+                pending.put(id, entry);
+            }
+        }
+        Logger.info("Restored %d offline requests", restored.size());
+    }
+
+    private boolean persist(NetworkTask<?> task, String owner, File file) {
+        HttpRequest request = task.request(box);
+        if (request == null) {
+            return false;
+        }
+        String path = box.requestFactory.pathOf(request.url);
+        if (path == null) {
+            return false;
+        }
+        JsonObject json = new JsonObject();
+        json.put("method", request.method);
+        json.put("path", path);
+        if (owner != null) {
+            json.put("owner", owner);
+        }
+        String contentType = request.headers.get(RequestFactory.CONTENT_HEADER);
+        if (contentType != null) {
+            json.put("contentType", contentType);
+        }
+        FileOutputStream out = null;
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try {
+            if (request.body != null) {
+                json.put("body", Base64.encodeToString(readFully(request.body), Base64.NO_WRAP));
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("cannot create " + dir);
+            }
+            out = new FileOutputStream(tmp);
+            out.write(json.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("cannot write " + file);
+            }
+            return true;
+        } catch (IOException e) {
+            Logger.error(e, "Unable to persist offline request");
+            delete(tmp);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // swallow
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.warn("Unable to delete %s", file);
+        }
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    private static final class Entry {
+        final long id;
+        final File file;
+        final NetworkTask<?> task;
+        final String owner;
+        boolean running;
+        volatile boolean discarded;
+
+        Entry(long id, File file, NetworkTask<?> task, String owner) {
+            this.id = id;
+            this.file = file;
+            this.task = task;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * A request restored from disk, replayed as a raw request.
+     */
+    private static final class Replay extends NetworkTask<JsonObject> {
+        private final int method;
+        private final String path;
+        private final String contentType;
+        private final byte[] body;
+        final String owner;
+
+        Replay(BaasBox box, int method, String path, String contentType, byte[] body, String owner) {
+            super(box, Constants.FLAG_QUEUE_OFFLINE, null);
+            this.method = method;
+            this.path = path;
+            this.contentType = contentType;
+            this.body = body;
+            this.owner = owner;
+        }
+
+        static Replay read(BaasBox box, File file) throws IOException, JsonException {
+            InputStream in = new FileInputStream(file);
+            JsonObject json = JsonObject.decode(new String(readFully(in), "UTF-8"));
+            String body = json.getString("body");
+            return new Replay(box, json.getInt("method", HttpRequest.POST), json.getString("path"),
+                    json.getString("contentType"),
+                    body == null ? null : Base64.decode(body, Base64.NO_WRAP),
+                    json.getString("owner"));
+        }
+
+        @Override
+        protected boolean canQueueOffline() {
+            return true;
+        }
+
+        @Override
+        protected BaasBox.Config.WorkerPool workerPool() {
+            return BaasBox.Config.WorkerPool.REST;
+        }
+
+        @Override
+        protected HttpRequest request(BaasBox box) {
+            return box.requestFactory.replay(method, path, contentType, body);
+        }
+
+        @Override
+        protected JsonObject onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
+            return parseJson(response, box);
+        }
+    }
+}
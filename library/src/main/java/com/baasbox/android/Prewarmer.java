@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.baasbox.android.impl.Logger;
+import com.baasbox.android.impl.Util;
+import com.baasbox.android.net.BufferPool;
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.Responses;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opens connections to the server before they are needed,
+ * by sending cheap requests in parallel on background threads,
+ * at init, when the application comes back to the foreground after
+ * being idle, and when asked to.
+ */
+final class Prewarmer {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int oneByte) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+        }
+    };
+
+    private final BaasBox box;
+    private final int connections;
+    private final long idleMillis;
+    private final AtomicBoolean warming = new AtomicBoolean();
+    private volatile long lastActivity;
+    private ThreadPoolExecutor workers;
+    private Object callbacks;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    Prewarmer(BaasBox box, int connections, long idleMillis) {
+        this.box = box;
+        this.connections = connections;
+        this.idleMillis = idleMillis;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Warms up the connections and watches the application coming back
+     * to the foreground, if warm up is enabled.
+     */
+    void start() {
+        if (connections <= 0) {
+            return;
+        }
+        Context app = box.context.getApplicationContext();
+        if (app instanceof Application && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            Foreground foreground = new Foreground();
+            ((Application) app).registerActivityLifecycleCallbacks(foreground);
+            callbacks = foreground;
+        }
+        prewarm();
+    }
+
+    void stop() {
+        Object foreground = callbacks;
+        callbacks = null;
+        if (foreground != null) {
+            ((Application) box.context.getApplicationContext()).unregisterActivityLifecycleCallbacks((Foreground) foreground);
+        }
+    }
+
+    /**
+     * Records that a request has been sent.
+     */
+    void touch() {
+        lastActivity = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Sends the warm up requests in the background, unless they are already running.
+     */
+    void prewarm() {
+        if (!warming.compareAndSet(false, true)) {
+            return;
+        }
+        touch();
+        final int count = Math.max(1, connections);
+        final CountDownLatch done = new CountDownLatch(count);
+        ThreadPoolExecutor workers = workers();
+        for (int i = 0; i < count; i++) {
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            warm();
+                        } finally {
+                            finish(done);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // a worker of the previous round is still on its way back to the pool
+                finish(done);
+            }
+        }
+    }
+
+    private void finish(CountDownLatch done) {
+        done.countDown();
+        if (done.getCount() == 0) {
+            warming.set(false);
+        }
+    }
+
+    private void warm() {
+        // any answer, even an error, leaves behind a connection ready to be reused
+        HttpRequest request = box.requestFactory.get(box.requestFactory.getEndpoint(""));
+        try {
+            HttpResponse response = Responses.execute(box.restClient, request);
+            // the connection goes back to the pool only once the body has been read
+            InputStream body = response.body();
+            if (body != null) {
+                BufferPool.copy(body, NULL_STREAM);
+            }
+            response.close();
+        } catch (BaasException e) {
+            Logger.debug("warm up request failed: %s", e.getMessage());
+        } catch (IOException e) {
+            Logger.debug("warm up request failed: %s", e.getMessage());
+        }
+    }
+
+    private void foreground() {
+        if (SystemClock.uptimeMillis() - lastActivity >= idleMillis) {
+            prewarm();
+        }
+    }
+
+    private synchronized ThreadPoolExecutor workers() {
+        if (workers == null) {
+            // a round sends one request per connection and rounds never overlap
+            workers = Util.daemonPool("prewarm", Math.max(1, connections));
+        }
+        return workers;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * Loaded only on api 14 and above.
+     */
+    private final class Foreground implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            foreground();
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.util.Pair;
+
+import com.baasbox.android.impl.Logger;
+import com.baasbox.android.impl.Util;
+import com.baasbox.android.net.BufferPool;
+import com.baasbox.android.net.CancellableRestClient;
+import com.baasbox.android.net.ContentEncoding;
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
+import com.baasbox.android.net.Responses;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Downloads the content of a file to disk using ranged requests,
+ * so that an interrupted download continues from the last byte
+ * saved the next time it is started.
+ * <p>
+ * Progress is kept in a <code>.part</code> file next to the target, together with
+ * a <code>.meta</code> file holding the validator of the content,
+ * sent as If-Range so that a file changed on the server is downloaded again.
+ * When more than one segment is requested, the content is split
+ * in ranges downloaded in parallel, each in its own part file, that are then
+ * joined in the target. Servers that ignore ranges are read as a single stream.
+ * </p>
+ */
+final class RangedDownload extends NetworkTask<Pair<BaasFile, String>> {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final String RANGE = "Range";
+    private static final String IF_RANGE = "If-Range";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String IDENTITY = "identity";
+    private static final long MIN_SEGMENT_SIZE = 512 * 1024;
+
+    private final BaasBox box;
+    private final BaasFile file;
+    private final String id;
+    private final File target;
+    private final File metaFile;
+    private final int segments;
+    private final List<HttpRequest> segmentRequests = new CopyOnWriteArrayList<HttpRequest>();
+    private long offset;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    RangedDownload(BaasBox box, BaasFile file, String path, int segments, int flags, BaasHandler<Pair<BaasFile, String>> handler) {
+        super(box, flags, handler);
+        this.box = box;
+        this.file = file;
+        this.id = file.getId();
+        this.target = new File(path);
+        this.metaFile = new File(path + ".meta");
+        this.segments = Math.max(1, segments);
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Returns the validator of the content of <code>response</code>,
+     * a strong ETag or the Last-Modified date, or null if there is none.
+     */
+    private static String validatorOf(HttpResponse response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    @Override
+    protected BaasBox.Config.WorkerPool workerPool() {
+        return BaasBox.Config.WorkerPool.STREAM;
+    }
+
+    @Override
+    protected Pair<BaasFile, String> getFromCache(BaasBox box) throws BaasException {
+        BaasStream cached = box.mCache.getStream(id);
+        if (cached == null) {
+            return null;
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                BufferPool.copy(cached, out);
+            } finally {
+                out.close();
+            }
+            return new Pair<BaasFile, String>(file, target.getPath());
+        } catch (IOException e) {
+            throw new BaasIOException("error while copying content from cache", e);
+        } finally {
+            try {
+                cached.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    @Override
+    protected HttpRequest request(BaasBox box) {
+        HttpRequest request = newRequest();
+        if (segments > 1) {
+            // the first byte tells if ranges are supported and the length of the content
+            request.headers.put(RANGE, "bytes=0-0");
+            return request;
+        }
+        Meta meta = Meta.read(metaFile);
+        File part = part(0);
+        offset = meta == null || meta.segments != 1 ? 0 : part.length();
+        if (offset > 0) {
+            request.headers.put(RANGE, "bytes=" + offset + "-");
+            request.headers.put(IF_RANGE, meta.validator);
+        }
+        return request;
+    }
+
+    private HttpRequest newRequest() {
+        String endpoint = box.requestFactory.getEndpoint("file/{}", id);
+        HttpRequest request = box.requestFactory.get(endpoint);
+        // ranges of compressed content cannot be joined
+        request.headers.put(ContentEncoding.ACCEPT_ENCODING, IDENTITY);
+        return request;
+    }
+
+    @Override
+    protected Pair<BaasFile, String> onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
+        ContentRange range = status == 206 ? ContentRange.parse(response.header(CONTENT_RANGE)) : null;
+        String validator = validatorOf(response);
+        if (segments > 1 && range != null) {
+            response.close();
+            int count = (int) Math.min(segments, range.total / MIN_SEGMENT_SIZE);
+            if (validator != null && count > 1) {
+                return parallel(range.total, count, validator);
+            }
+            // too small to split, or without a validator to check the segments against
+            return single();
+        }
+        if (range == null) {
+            // the whole content: the server ignored the range or the file changed
+            deleteParts();
+            new Meta(validator, response.contentLength(), 1).write(metaFile);
+            save(response, part(0), false);
+        } else if (range.start == offset) {
+            save(response, part(0), true);
+        } else {
+            response.close();
+            return single();
+        }
+        return finish(1);
+    }
+
+    @Override
+    protected Pair<BaasFile, String> onClientError(int status, HttpResponse response, BaasBox box) throws BaasException {
+        if (status == 416) {
+            // the saved progress does not match the content anymore,
+            // or the content is empty and has no first byte
+            response.close();
+            return single();
+        }
+        return super.onClientError(status, response, box);
+    }
+
+    /**
+     * Downloads the whole content again as a single stream.
+     */
+    private Pair<BaasFile, String> single() throws BaasException {
+        deleteParts();
+        offset = 0;
+        HttpResponse response = execute(newRequest());
+        new Meta(validatorOf(response), response.contentLength(), 1).write(metaFile);
+        save(response, part(0), false);
+        return finish(1);
+    }
+
+    private Pair<BaasFile, String> parallel(long total, int count, String validator) throws BaasException {
+        Meta meta = Meta.read(metaFile);
+        if (meta == null || meta.segments != count || meta.total != total || !validator.equals(meta.validator)) {
+            deleteParts();
+            new Meta(validator, total, count).write(metaFile);
+        }
+        List<Future<Boolean>> running = new ArrayList<Future<Boolean>>(count - 1);
+        // the first segment is downloaded on this worker
+        ThreadPoolExecutor segmentPool = Util.daemonPool("segment", count - 1);
+        boolean ranged = true;
+        try {
+            for (int i = 1; i < count; i++) {
+                running.add(segmentPool.submit(new Segment(i, count, total, validator)));
+            }
+            ranged = new Segment(0, count, total, validator).call();
+            for (Future<Boolean> segment : running) {
+                ranged &= segment.get();
+            }
+        } catch (InterruptedException e) {
+            throw new BaasCancellationException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BaasException) {
+                throw (BaasException) cause;
+            }
+            throw new BaasIOException("segment download failed", cause);
+        } catch (BaasException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BaasIOException("segment download failed", e);
+        } finally {
+            for (Future<Boolean> segment : running) {
+                segment.cancel(true);
+            }
+            cancelSegments();
+            segmentPool.shutdown();
+        }
+        if (!ranged) {
+            // the content changed while downloading: start over as a single stream
+            Logger.warn("ranges of %s not honored, downloading it as a single stream", id);
+            return single();
+        }
+        return finish(count);
+    }
+
+    private HttpResponse execute(HttpRequest request) throws BaasException {
+        if (isInterrupted()) {
+            throw new BaasCancellationException();
+        }
+        segmentRequests.add(request);
+        HttpResponse response;
+        try {
+            response = Responses.execute(box.restClient, request);
+        } finally {
+            segmentRequests.remove(request);
+        }
+        int status = response.status();
+        if (status / 100 == 4) {
+            throw new BaasClientException(status, parseJson(response, box));
+        } else if (status / 100 == 5) {
+            throw new BaasServerException(status, parseJson(response, box));
+        } else if (status / 100 != 2) {
+            response.close();
+            throw new BaasIOException("unexpected status code returned from server: " + status);
+        }
+        return response;
+    }
+
+    private void save(HttpResponse response, File part, boolean append) throws BaasException {
+        OutputStream out = null;
+        byte[] buffer = BufferPool.acquire();
+        try {
+            InputStream in = response.body();
+            out = new FileOutputStream(part, append);
+            int read;
+            while (in != null && (read = in.read(buffer)) != -1) {
+                if (isInterrupted()) {
+                    throw new BaasCancellationException();
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // what was written so far is kept to resume from
+            throw new BaasIOException(e);
+        } finally {
+            BufferPool.release(buffer);
+            response.close();
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    private Pair<BaasFile, String> finish(int count) throws BaasException {
+        try {
+            if (count == 1) {
+                if (target.exists() && !target.delete() || !part(0).renameTo(target)) {
+                    throw new IOException("cannot move the download to " + target);
+                }
+            } else {
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        InputStream in = new FileInputStream(part(i));
+                        try {
+                            BufferPool.copy(in, out);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new BaasIOException(e);
+        }
+        deleteParts();
+        return new Pair<BaasFile, String>(file, target.getPath());
+    }
+
+    private File part(int segment) {
+        return new File(target.getPath() + ".part" + (segment == 0 ? "" : Integer.toString(segment)));
+    }
+
+    private void deleteParts() {
+        Meta meta = Meta.read(metaFile);
+        int count = meta == null ? Math.max(1, segments) : Math.max(meta.segments, segments);
+        for (int i = 0; i < count; i++) {
+            part(i).delete();
+        }
+        metaFile.delete();
+    }
+
+    private void cancelSegments() {
+        if (box.restClient instanceof CancellableRestClient) {
+            for (HttpRequest request : segmentRequests) {
+                ((CancellableRestClient) box.restClient).cancel(request);
+            }
+        }
+    }
+
+    @Override
+    protected void onInterrupt() {
+        super.onInterrupt();
+        cancelSegments();
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * Downloads one range of the content in its own part file.
+     * Returns false if the server answered with the whole content.
+     */
+    private final class Segment implements Callable<Boolean> {
+        private final int index;
+        private final long start;
+        private final long end;
+        private final String validator;
+
+        Segment(int index, int count, long total, String validator) {
+            this.index = index;
+            this.start = total * index / count;
+            this.end = total * (index + 1) / count - 1;
+            this.validator = validator;
+        }
+
+        @Override
+        public Boolean call() throws BaasException {
+            File part = part(index);
+            long from = start + part.length();
+            if (from > end) {
+                return true;
+            }
+            HttpRequest request = newRequest();
+            request.headers.put(RANGE, "bytes=" + from + "-" + end);
+            request.headers.put(IF_RANGE, validator);
+            HttpResponse response = execute(request);
+            ContentRange range = response.status() == 206 ? ContentRange.parse(response.header(CONTENT_RANGE)) : null;
+            if (range == null || range.start != from) {
+                response.close();
+                return false;
+            }
+            save(response, part, true);
+            return true;
+        }
+    }
+
+    static final class ContentRange {
+        final long start;
+        final long total;
+
+        private ContentRange(long start, long total) {
+            this.start = start;
+            this.total = total;
+        }
+
+        /**
+         * Parses a <code>bytes start-end/total</code> header, returns null if it is not valid.
+         */
+        static ContentRange parse(String header) {
+            if (header == null || !header.startsWith("bytes ")) {
+                return null;
+            }
+            int dash = header.indexOf('-');
+            int slash = header.indexOf('/');
+            if (dash < 0 || slash < dash) {
+                return null;
+            }
+            try {
+                long start = Long.parseLong(header.substring(6, dash).trim());
+                String total = header.substring(slash + 1).trim();
+                return new ContentRange(start, "*".equals(total) ? -1 : Long.parseLong(total));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The progress of a download saved next to its part files.
+     */
+    private static final class Meta {
+        final String validator;
+        final long total;
+        final int segments;
+
+        Meta(String validator, long total, int segments) {
+            this.validator = validator;
+            this.total = total;
+            this.segments = segments;
+        }
+
+        static Meta read(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(file));
+                String validator = reader.readLine();
+                long total = Long.parseLong(reader.readLine());
+                int segments = Integer.parseInt(reader.readLine());
+                return validator == null || validator.length() == 0 ? null : new Meta(validator, total, segments);
+            } catch (IOException e) {
+                return null;
+            } catch (RuntimeException e) {
+                // a truncated or corrupted file
+                return null;
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+            }
+        }
+
+        void write(File file) throws BaasIOException {
+            if (validator == null) {
+                // the content cannot be resumed safely
+                file.delete();
+                return;
+            }
+            Writer writer = null;
+            try {
+                writer = new FileWriter(file);
+                writer.write(validator + '\n' + total + '\n' + segments + '\n');
+            } catch (IOException e) {
+                throw new BaasIOException(e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+            }
+        }
+    }
+}
@@ -21,11 +21,13 @@ import com.baasbox.android.impl.Base64;
 import com.baasbox.android.impl.Logger;
 import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
+import com.baasbox.android.net.ContentEncoding;
+import com.baasbox.android.net.HttpBody;
 import com.baasbox.android.net.HttpRequest;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.*;
@@ -48,9 +50,14 @@ class RequestFactory {
 
     static final String CONTENT_LENGTH = "Content-Length";
 
+    // common headers that requests may replace, such as downloads asking for identity
+    private static final Set<String> DEFAULT_HEADERS = Collections.singleton(ContentEncoding.ACCEPT_ENCODING);
+
     private final BaasBox.Config config;
     private final BaasCredentialManager credentials;
     private final String apiRoot;
+    private volatile boolean compressionRejected;
+    private volatile HeaderTemplate template;
 
 // --------------------------- CONSTRUCTORS ---------------------------
     RequestFactory(BaasBox.Config config, BaasCredentialManager credential) {
@@ -122,14 +129,8 @@ class RequestFactory {
         InputStream body = null;
         Map<String, String> headers = null;
         if (array != null) {
-            byte[] bytes = null;
-            try {
-                bytes = array.toString().getBytes(config.httpCharset);
-            } catch (UnsupportedEncodingException e) {
-                throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-            }
-            headers = setContentType(headers, config, JSON_CONTENT, bytes.length);
-            body = new ByteArrayInputStream(bytes);
+            headers = setContentType(headers, config, JSON_CONTENT);
+            body = new JsonBody(array, config.httpCharset);
         }
         return post(uri, headers, body);
 
@@ -138,18 +139,19 @@ class RequestFactory {
         InputStream body = null;
         Map<String, String> headers = null;
         if (object != null) {
-            byte[] bytes = null;
-            try {
-                bytes = object.toString().getBytes(config.httpCharset);
-            } catch (UnsupportedEncodingException e) {
-                throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-            }
-            headers = setContentType(headers, config, JSON_CONTENT, bytes.length);
-            body = new ByteArrayInputStream(bytes);
+            headers = setContentType(headers, config, JSON_CONTENT);
+            body = new JsonBody(object, config.httpCharset);
         }
         return post(uri, headers, body);
     }
 
+    private static Map<String, String> setContentType(Map<String, String> headers, BaasBox.Config config, String contentType) {
+        // the length of streamed bodies is set by the client
+        headers = headers == null ? new HashMap<String, String>() : headers;
+        headers.put(CONTENT_HEADER, contentType + config.httpCharset);
+        return headers;
+    }
+
     private static Map<String, String> setContentType(Map<String, String> headers, BaasBox.Config config, String contentType, int length) {
         headers = headers == null ? new HashMap<String, String>() : headers;
         headers.put(CONTENT_HEADER, contentType + config.httpCharset);
@@ -161,14 +163,8 @@ class RequestFactory {
         InputStream body = null;
         Map<String, String> headers = null;
         if (object != null) {
-            byte[] bytes = null;
-            try {
-                bytes = object.toString().getBytes(config.httpCharset);
-            } catch (UnsupportedEncodingException e) {
-                throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-            }
-            headers = setContentType(headers, config, JSON_CONTENT, bytes.length);
-            body = new ByteArrayInputStream(bytes);
+            headers = setContentType(headers, config, JSON_CONTENT);
+            body = new JsonBody(object, config.httpCharset);
         }
         return put(uri, headers, body);
     }
@@ -177,14 +173,8 @@ class RequestFactory {
         InputStream body = null;
         Map<String, String> headers = null;
         if (object != null) {
-            byte[] bytes = null;
-            try {
-                bytes = object.toString().getBytes(config.httpCharset);
-            } catch (UnsupportedEncodingException e) {
-                throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-            }
-            headers = setContentType(headers, config, JSON_CONTENT, bytes.length);
-            body = new ByteArrayInputStream(bytes);
+            headers = setContentType(headers, config, JSON_CONTENT);
+            body = new JsonBody(object, config.httpCharset);
         }
         return put(uri, headers, body);
     }
@@ -197,14 +187,8 @@ class RequestFactory {
         InputStream body = null;
         Map<String, String> headers = null;
         if (array != null) {
-            byte[] bytes = null;
-            try {
-                bytes = array.toString().getBytes(config.httpCharset);
-            } catch (UnsupportedEncodingException e) {
-                throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-            }
-            headers = setContentType(headers, config, JSON_CONTENT, bytes.length);
-            body = new ByteArrayInputStream(bytes);
+            headers = setContentType(headers, config, JSON_CONTENT);
+            body = new JsonBody(array, config.httpCharset);
         }
         return delete(uri, headers, body);
 
@@ -213,20 +197,14 @@ class RequestFactory {
         InputStream body = null;
         Map<String, String> headers = null;
         if (object != null) {
-            byte[] bytes = null;
-            try {
-                bytes = object.toString().getBytes(config.httpCharset);
-            } catch (UnsupportedEncodingException e) {
-                throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-            }
-            headers = setContentType(headers, config, JSON_CONTENT, bytes.length);
-            body = new ByteArrayInputStream(bytes);
+            headers = setContentType(headers, config, JSON_CONTENT);
+            body = new JsonBody(object, config.httpCharset);
         }
         return delete(uri, headers, body);
     }
 
     public HttpRequest delete(String uri, Map<String, String> headers, InputStream body) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         return new HttpRequest(HttpRequest.DELETE, uri, headers, body);
     }
 
@@ -235,7 +213,7 @@ class RequestFactory {
     }
 
     public HttpRequest delete(String endpoint, Map<String, String> queryParams, Map<String, String> headers) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         if (queryParams != null) {
             String queryUrl = encodeParams(queryParams, config.httpCharset);
             endpoint = endpoint + "?" + queryUrl;
@@ -244,7 +222,7 @@ class RequestFactory {
     }
 
     public HttpRequest delete(String endpoint, Map<String, String> headers,Map<String,String>query, InputStream body) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         if (query != null) {
             String queryUrl = encodeParams(query, config.httpCharset);
             endpoint = endpoint + "?" + queryUrl;
@@ -253,24 +231,37 @@ class RequestFactory {
     }
 
 
-    private static Map<String, String> fillHeaders(Map<String, String> headers, BaasBox.Config config, BaasUser credentials) {
-        headers = headers == null ? new HashMap<String, String>() : headers;
+    private Map<String, String> fillHeaders(Map<String, String> headers) {
+        return headerTemplate().with(headers);
+    }
+
+    private HeaderTemplate headerTemplate() {
+        BaasUser user = credentials.currentUser();
+        int generation = credentials.generation();
+        HeaderTemplate template = this.template;
+        if (template == null || !template.matches(generation, user)) {
+            template = new HeaderTemplate(commonHeaders(config, user), DEFAULT_HEADERS, generation, user);
+            this.template = template;
+        }
+        return template;
+    }
+
+    private static Map<String, String> commonHeaders(BaasBox.Config config, BaasUser credentials) {
+        Map<String, String> headers = new HashMap<String, String>();
         headers.put(APPCODE_HEADER_NAME, config.appCode);
         headers.put(USER_AGENT_HEADER_NAME, USER_AGENT_HEADER);
-
-        Logger.debug("Format %s", credentials);
+        headers.put(ContentEncoding.ACCEPT_ENCODING, ContentEncoding.GZIP);
         if (credentials != null) {
-            Logger.debug("Format2 %s", credentials);
             if(BaasBox.Config.AuthType.BASIC_AUTHENTICATION == config.authenticationType){
-                 if (credentials.getName() != null && credentials.getPassword() != null) {
-                        String plain = credentials.getName() + ':' + credentials.getPassword();
-                        String encoded = Base64.encodeToString(plain.getBytes(), Base64.NO_WRAP).trim();
-                        headers.put(BASIC_AUTH_HEADER_NAME, "Basic " + encoded);
-                    }
+                if (credentials.getName() != null && credentials.getPassword() != null) {
+                    String plain = credentials.getName() + ':' + credentials.getPassword();
+                    String encoded = Base64.encodeToString(plain.getBytes(), Base64.NO_WRAP).trim();
+                    headers.put(BASIC_AUTH_HEADER_NAME, "Basic " + encoded);
+                }
             } else {
-                    if (credentials.getToken() != null) {
-                        headers.put(BB_SESSION_HEADER_NAME, credentials.getToken());
-                    }
+                if (credentials.getToken() != null) {
+                    headers.put(BB_SESSION_HEADER_NAME, credentials.getToken());
+                }
             }
         }
         return headers;
@@ -302,7 +293,7 @@ class RequestFactory {
     }
 
     public HttpRequest get(String endpoint, Map<String, String> headers, Param... queryParams) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         if (queryParams != null) {
             String queryUrl = encodeQueryParams(queryParams, config.httpCharset);
             endpoint = endpoint + "?" + queryUrl;
@@ -329,6 +320,115 @@ class RequestFactory {
         }
     }
 
+    /**
+     * Returns the endpoint of <code>url</code> relative to the api root,
+     * without the query string, or null if the url is not an api url.
+     */
+    String endpointOf(String url){
+        String path = pathOf(url);
+        if (path == null){
+            return null;
+        }
+        int query = path.indexOf('?');
+        return query == -1 ? path : path.substring(0, query);
+    }
+
+    /**
+     * Returns the path of <code>url</code> relative to the api root,
+     * including the query string, or null if the url is not an api url.
+     */
+    String pathOf(String url){
+        if (url == null || !url.startsWith(apiRoot)){
+            return null;
+        }
+        int start = apiRoot.length();
+        if (url.startsWith("/", start)){
+            start++;
+        }
+        return url.substring(start);
+    }
+
+    /**
+     * Compresses the body of <code>request</code> with gzip if it is
+     * larger than the configured threshold.
+     *
+     * @return true if the body has been compressed
+     */
+    boolean compress(HttpRequest request){
+        if (config.requestCompressionThreshold < 0 || compressionRejected){
+            return false;
+        }
+        if (request.headers.containsKey(ContentEncoding.CONTENT_ENCODING)){
+            return false;
+        }
+        if (request.body instanceof JsonBody){
+            return compressStreaming(request);
+        }
+        if (!(request.body instanceof ByteArrayInputStream)){
+            // only json and bodies already in memory are compressed, uploads are sent as they are
+            return false;
+        }
+        ByteArrayInputStream in = (ByteArrayInputStream) request.body;
+        int length = in.available();
+        if (length < config.requestCompressionThreshold){
+            return false;
+        }
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length){
+            read += in.read(bytes, read, length - read);
+        }
+        byte[] compressed = ContentEncoding.gzip(bytes);
+        if (compressed.length >= length){
+            request.body = new ByteArrayInputStream(bytes);
+            return false;
+        }
+        request.body = new ByteArrayInputStream(compressed);
+        request.headers.put(ContentEncoding.CONTENT_ENCODING, ContentEncoding.GZIP);
+        request.headers.put(CONTENT_LENGTH, Integer.toString(compressed.length));
+        return true;
+    }
+
+    private boolean compressStreaming(HttpRequest request){
+        HttpBody body = (HttpBody) request.body;
+        try {
+            long length = body.length();
+            if (length < 0 || length < config.requestCompressionThreshold){
+                return false;
+            }
+        } catch (IOException e){
+            return false;
+        }
+        request.body = ContentEncoding.gzip(body);
+        request.headers.put(ContentEncoding.CONTENT_ENCODING, ContentEncoding.GZIP);
+        request.headers.remove(CONTENT_LENGTH);
+        return true;
+    }
+
+    /**
+     * Stops compressing request bodies, invoked when
+     * the server rejects a compressed body.
+     */
+    void rejectCompression(){
+        if (!compressionRejected){
+            compressionRejected = true;
+            Logger.warn("The server does not accept compressed bodies: compression disabled");
+        }
+    }
+
+    /**
+     * Rebuilds a request saved by the offline queue, using
+     * the current credentials.
+     */
+    HttpRequest replay(int method, String path, String contentType, byte[] body){
+        Map<String, String> headers = new HashMap<String, String>();
+        if (contentType != null){
+            headers.put(CONTENT_HEADER, contentType);
+        }
+        headers = fillHeaders(headers);
+        return new HttpRequest(method, getEndpointRaw(path), headers, body == null ? null : new ByteArrayInputStream(body));
+    }
+
     public String getEndpointRaw(String endpoint){
         if (endpoint.startsWith("/")){
             endpoint=endpoint.substring(1);
@@ -370,7 +470,7 @@ class RequestFactory {
     }
 
     public HttpRequest post(String endpoint, Map<String, String> headers, Param... params) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         if (params != null) {
             String paramsUrl = encodeQueryParams(params, config.httpCharset);
             endpoint = endpoint + "?" + paramsUrl;
@@ -383,71 +483,48 @@ class RequestFactory {
     }
 
     public HttpRequest put(String uri, Map<String, String> headers, InputStream body) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         return new HttpRequest(HttpRequest.PUT, uri, headers, body);
     }
 
     public HttpRequest uploadFile(String endpoint, boolean binary, InputStream inputStream, String name, String contentType, JsonObject acl, JsonObject metaData) {
         final String boundary = Long.toHexString(System.currentTimeMillis());
-        List<InputStream> ins = new ArrayList<InputStream>();
         contentType = contentType == null ? "application/octet-stream" : contentType;
-        ins.add(fileBoundary(boundary, contentType, binary, name));
-        ins.add(inputStream);
+        StringBuilder tail = new StringBuilder();
         if (metaData != null) {
-            ins.add(metaDataStream(boundary, "attachedData", config));
-            ins.add(jsonInputStream(metaData, config.httpCharset));
+            metaDataPart(tail, boundary, "attachedData", metaData);
         }
         if (acl != null) {
-            ins.add(metaDataStream(boundary, "acl", config));
-            ins.add(jsonInputStream(acl, config.httpCharset));
+            metaDataPart(tail, boundary, "acl", acl);
         }
-        ins.add(trail(boundary, config));
-        SequenceInputStream body = new SequenceInputStream(Collections.enumeration(ins));
+        tail.append(String.format(Locale.US, "\r\n--%s--\r\n", boundary));
+        MultipartBody body = new MultipartBody(encode(fileBoundary(boundary, contentType, binary, name)), inputStream, encode(tail.toString()));
         return post(endpoint, multipartHeader(boundary), body);
     }
 
-    private InputStream fileBoundary(String boundary, String contentType, boolean binary, String name) {
-        String header = String.format(Locale.US, "--%s\r\n" +
+    private String fileBoundary(String boundary, String contentType, boolean binary, String name) {
+        return String.format(Locale.US, "--%s\r\n" +
                 "Content-Disposition: form-data; name=\"file\"; filename=\"%s\"\r\n" +
                 "Content-Type: %s\r\n%s\r\n", boundary, name, contentType, binary ? "Content-Transfer-Encoding: binary\r\n" : "");
-        try {
-            return new ByteArrayInputStream(header.getBytes(config.httpCharset));
-        } catch (UnsupportedEncodingException e) {
-            throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-        }
     }
 
-    private InputStream metaDataStream(String boundary, String type, BaasBox.Config config) {
-        String header = String.format(Locale.US, "\r\n--%s\r\n" +
+    private void metaDataPart(StringBuilder part, String boundary, String type, JsonObject object) {
+        part.append(String.format(Locale.US, "\r\n--%s\r\n" +
                 "Content-Disposition: form-data; name=\"%s\"\r\n" +
-                "Content-Type: " + JSON_CONTENT + "%s\r\n\r\n", boundary, type, config.httpCharset);
-        try {
-            return new ByteArrayInputStream(header.getBytes(config.httpCharset));
-        } catch (UnsupportedEncodingException e) {
-            throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-        }
-    }
-
-    private InputStream jsonInputStream(JsonObject object, String charset) {
-        try {
-            return new ByteArrayInputStream(object.toString().getBytes(charset));
-        } catch (UnsupportedEncodingException e) {
-            throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
-        }
+                "Content-Type: " + JSON_CONTENT + "%s\r\n\r\n", boundary, type, config.httpCharset));
+        part.append(object.toString());
     }
 
-    private InputStream trail(String boundary, BaasBox.Config config) {
+    private byte[] encode(String text) {
         try {
-            byte[] trail = String.format(Locale.US, "\r\n--%s--\r\n", boundary).getBytes(config.httpCharset);
-            ByteArrayInputStream in = new ByteArrayInputStream(trail);
-            return in;
+            return text.getBytes(config.httpCharset);
         } catch (UnsupportedEncodingException e) {
             throw new BaasRuntimeException("Charset "+config.httpCharset+" is not supported",e);
         }
     }
 
     public HttpRequest post(String uri, Map<String, String> headers, InputStream body) {
-        headers = fillHeaders(headers, config, credentials.currentUser());
+        headers = fillHeaders(headers);
         return new HttpRequest(HttpRequest.POST, uri, headers, body);
     }
 
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.baasbox.android.impl.Dispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of related asynchronous requests, such as the ones started by a screen,
+ * that can be cancelled, suspended, resumed and saved together.
+ * <p>
+ * Requests are tagged when they are submitted:
+ * <pre>
+ *     RequestGroup group = new RequestGroup();
+ *     group.add(document.save(handler));
+ *     group.add(BaasDocument.fetchAll("news", listHandler));
+ * </pre>
+ * The group stores only the ids of its members, so it can be saved
+ * in {@link android.app.Activity#onSaveInstanceState(android.os.Bundle)} as a single Parcelable
+ * and aborted in {@link android.app.Activity#onDestroy()} to stop any network activity
+ * of an abandoned screen.
+ * </p>
+ *
+ * @since 0.9.3
+ */
+public final class RequestGroup implements Parcelable {
+// ------------------------------ FIELDS ------------------------------
+
+    public static final Creator<RequestGroup> CREATOR =
+            new Creator<RequestGroup>() {
+                @Override
+                public RequestGroup createFromParcel(Parcel source) {
+                    int[] ids = source.createIntArray();
+                    return new RequestGroup(ids, ids.length);
+                }
+
+                @Override
+                public RequestGroup[] newArray(int size) {
+                    return new RequestGroup[size];
+                }
+            };
+
+    // ids are kept sorted, new requests have the highest ids
+    // so they are simply appended
+    private int[] ids;
+    private int size;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    public RequestGroup() {
+        this(new int[8], 0);
+    }
+
+    private RequestGroup(int[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Loads a group from the bundle and immediately resumes
+     * all of its requests with <code>handler</code>.
+     *
+     * @param bundle  a non null bundle
+     * @param name    the key of the saved group
+     * @param handler the handler to resume the requests with
+     * @return the group or null if no group was saved with <code>name</code>
+     */
+    public static RequestGroup loadAndResume(Bundle bundle, String name, BaasHandler<?> handler) {
+        if (bundle == null)
+            throw new IllegalArgumentException("bundle cannot be null");
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+        RequestGroup group = bundle.getParcelable(name);
+        if (group != null) {
+            group.resume(handler);
+        }
+        return group;
+    }
+
+// ------------------------ INTERFACE METHODS ------------------------
+
+
+// --------------------- Interface Parcelable ---------------------
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public synchronized void writeToParcel(Parcel dest, int flags) {
+        dest.writeIntArray(Arrays.copyOf(ids, size));
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Adds a request to this group.
+     *
+     * @param token the token of the request
+     * @return the same token
+     */
+    public RequestToken add(RequestToken token) {
+        if (token == null) throw new IllegalArgumentException("token cannot be null");
+        insert(token.requestId);
+        return token;
+    }
+
+    /**
+     * Removes a request from this group.
+     *
+     * @param token the token of the request
+     * @return true if the request was in the group
+     */
+    public synchronized boolean remove(RequestToken token) {
+        if (token == null) throw new IllegalArgumentException("token cannot be null");
+        int index = Arrays.binarySearch(ids, 0, size, token.requestId);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns true if the request belongs to this group.
+     *
+     * @param token the token of the request
+     * @return true if the request is in the group
+     */
+    public synchronized boolean contains(RequestToken token) {
+        return token != null && Arrays.binarySearch(ids, 0, size, token.requestId) >= 0;
+    }
+
+    /**
+     * Returns the tokens of the requests in this group
+     * that are not completed yet.
+     *
+     * @return a new list of tokens
+     */
+    public synchronized List<RequestToken> tokens() {
+        prune();
+        List<RequestToken> tokens = new ArrayList<RequestToken>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(new RequestToken(ids[i]));
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the number of requests in this group
+     * that are not completed yet.
+     *
+     * @return the number of requests
+     */
+    public synchronized int size() {
+        prune();
+        return size;
+    }
+
+    /**
+     * Cancels every request of the group, the handlers of the requests
+     * will receive a cancelled result.
+     *
+     * @return the number of requests cancelled
+     */
+    public int cancel() {
+        return cancel(false);
+    }
+
+    /**
+     * Aborts every request of the group: running requests have their connection closed
+     * and no handler is invoked.
+     * The group is emptied.
+     *
+     * @return the number of requests aborted
+     */
+    public int abort() {
+        return cancel(true);
+    }
+
+    /**
+     * Suspends every request of the group.
+     *
+     * @return the number of requests suspended
+     */
+    public int suspend() {
+        Dispatcher dispatcher = BaasBox.getDefaultChecked().asyncDispatcher();
+        int[] members = snapshot(dispatcher);
+        int suspended = 0;
+        for (int id : members) {
+            if (dispatcher.suspend(id)) {
+                suspended++;
+            }
+        }
+        return suspended;
+    }
+
+    /**
+     * Resumes every suspended request of the group with <code>handler</code>.
+     *
+     * @param handler the handler to resume the requests with
+     * @return the number of requests resumed
+     */
+    @SuppressWarnings("unchecked")
+    public int resume(BaasHandler<?> handler) {
+        Dispatcher dispatcher = BaasBox.getDefaultChecked().asyncDispatcher();
+        BaasHandler<Object> h = (BaasHandler<Object>) (handler == null ? BaasHandler.NOOP : handler);
+        int[] members = snapshot(dispatcher);
+        int resumed = 0;
+        for (int id : members) {
+            if (dispatcher.resume(id, h)) {
+                resumed++;
+            }
+        }
+        return resumed;
+    }
+
+    /**
+     * Suspends every request of the group and saves the group in a bundle.
+     *
+     * @param bundle a non null bundle
+     * @param name   the key to save the group with
+     * @return the number of requests suspended
+     */
+    public int suspendAndSave(Bundle bundle, String name) {
+        if (bundle == null)
+            throw new IllegalArgumentException("bundle cannot be null");
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+        int suspended = suspend();
+        bundle.putParcelable(name, this);
+        return suspended;
+    }
+
+    private int cancel(boolean immediate) {
+        Dispatcher dispatcher = BaasBox.getDefaultChecked().asyncDispatcher();
+        int[] members;
+        synchronized (this) {
+            members = snapshot(dispatcher);
+            if (immediate) {
+                size = 0;
+            }
+        }
+        int cancelled = 0;
+        for (int id : members) {
+            if (dispatcher.cancel(id, immediate)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    private synchronized void insert(int id) {
+        if (size > 0 && ids[size - 1] >= id) {
+            if (Arrays.binarySearch(ids, 0, size, id) >= 0) {
+                return;
+            }
+            ensureCapacity();
+            // pruning may have moved the ids
+            int index = -Arrays.binarySearch(ids, 0, size, id) - 1;
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+        } else {
+            ensureCapacity();
+            ids[size] = id;
+        }
+        size++;
+    }
+
+    private void ensureCapacity() {
+        if (size == ids.length) {
+            // completed requests make room before the group grows
+            prune();
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(8, size * 2));
+        }
+    }
+
+    private void prune() {
+        BaasBox box = BaasBox.getDefault();
+        if (box != null) {
+            snapshot(box.asyncDispatcher());
+        }
+    }
+
+    /**
+     * Drops the requests that are no longer known and
+     * returns the remaining ones.
+     */
+    private synchronized int[] snapshot(Dispatcher dispatcher) {
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            if (dispatcher.isLive(ids[i])) {
+                ids[live++] = ids[i];
+            }
+        }
+        size = live;
+        return Arrays.copyOf(ids, size);
+    }
+}
@@ -17,6 +17,8 @@
 
 package com.baasbox.android;
 
+import android.os.SystemClock;
+
 import com.baasbox.android.impl.Constants;
 
 /**
@@ -33,7 +35,7 @@ public final class RequestOptions {
     /**
      * Marks an asynchronous request as low priority
      */
-    public static final int PRIORITY_LOW=Constants.PRIORITY_HIGH;
+    public static final int PRIORITY_LOW=Constants.PRIORITY_LOW;
 
 
     /**
@@ -41,9 +43,80 @@ public final class RequestOptions {
      */
     public static final int PRIORITY_HIGH=Constants.PRIORITY_HIGH;
 
+    /**
+     * Marks an asynchronous request as background work,
+     * it is served after low priority requests, but never starved.
+     */
+    public static final int PRIORITY_BACKGROUND=Constants.PRIORITY_BACKGROUND;
+
     /**
      * The set of defaults flags for a request.
      */
     public static final int DEFAULT = PRIORITY_NORMAL;
 
+    /**
+     * Disables automatic retries of a failed request.
+     *
+     * @see com.baasbox.android.RetryPolicy
+     */
+    public static final int NO_RETRY = Constants.FLAG_NO_RETRY;
+
+    /**
+     * Sends a duplicate of a read whose response is slower than
+     * most recent responses, keeping the first response that arrives.
+     * Applies only to GET requests, see {@link com.baasbox.android.BaasBox.Builder#setHedging(double, double)}.
+     */
+    public static final int HEDGE = Constants.FLAG_HEDGE;
+
+    /**
+     * Sends the body of the request uncompressed even if it is larger
+     * than the threshold set through {@link com.baasbox.android.BaasBox.Builder#setRequestCompression(int)}.
+     */
+    public static final int NO_COMPRESSION = Constants.FLAG_NO_COMPRESSION;
+
+    /**
+     * Keeps a write that fails because the device is offline
+     * in a durable queue, replaying it when connectivity returns.
+     * Applies to saves and deletes of documents and links and to grants,
+     * it is ignored by other requests.
+     */
+    public static final int QUEUE_OFFLINE = Constants.FLAG_QUEUE_OFFLINE;
+
+    /**
+     * The longest timeout that can be encoded in flags, about four hours and a half.
+     */
+    public static final long MAX_TIMEOUT = Constants.MAX_TIMEOUT_MILLIS;
+
+    /**
+     * Returns the flags that give a request a deadline of <code>millis</code>
+     * milliseconds from the moment it is submitted.
+     * Combine them with the other flags, eg: <code>PRIORITY_HIGH|timeout(5000)</code>.
+     *
+     * Requests that are still waiting in the queue when the deadline expires
+     * are not executed and fail with a {@link com.baasbox.android.BaasTimeoutException},
+     * the remaining time is also used to bound the timeouts of the connection.
+     *
+     * @param millis the time the request has to complete, must be positive
+     * @return the timeout flags
+     */
+    public static int timeout(long millis) {
+        if (millis <= 0 || millis > MAX_TIMEOUT)
+            throw new IllegalArgumentException("timeout must be between 1 and " + MAX_TIMEOUT + " milliseconds");
+        return (int) (millis << Constants.TIMEOUT_SHIFT);
+    }
+
+    /**
+     * Returns the flags that give a request the absolute deadline <code>uptimeMillis</code>,
+     * expressed in the {@link android.os.SystemClock#uptimeMillis()} time base.
+     * A deadline in the past expires the request immediately.
+     *
+     * @param uptimeMillis the deadline of the request
+     * @return the timeout flags
+     * @see #timeout(long)
+     */
+    public static int deadlineAt(long uptimeMillis) {
+        long millis = uptimeMillis - SystemClock.uptimeMillis();
+        return timeout(Math.min(MAX_TIMEOUT, Math.max(1, millis)));
+    }
+
 }
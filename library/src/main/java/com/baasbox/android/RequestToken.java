@@ -136,6 +136,20 @@ public final class RequestToken implements Parcelable, Comparable<RequestToken>
         return BaasBox.getDefaultChecked().cancel(this);
     }
 
+    /**
+     * Returns a future bound to the request identified by this token.
+     * The future can be waited with a timeout and composed with other futures.
+     * A request that just completed still returns a completed future, null
+     * is returned only for tokens of unknown requests or of requests
+     * that completed long before.
+     *
+     * @param <R> the type of the value of the request
+     * @return the future of the request or null if the request is no longer known
+     */
+    public <R> BaasFuture<R> future() {
+        return BaasBox.getDefaultChecked().future(this);
+    }
+
     /**
      * Suspends a request and immediately save it in a bundle
      *
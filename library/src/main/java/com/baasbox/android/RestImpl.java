@@ -4,8 +4,8 @@ import com.baasbox.android.json.JsonArray;
 import com.baasbox.android.json.JsonObject;
 import com.baasbox.android.json.JsonStructure;
 import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
 
-import org.apache.http.HttpResponse;
 
 /**
  * Created by Andrea Tortorella on 1/12/15.
@@ -25,15 +25,7 @@ class RestImpl implements Rest{
         if (method == null) throw new IllegalArgumentException("method cannot be null");
         if (endpoint == null) throw new IllegalArgumentException("endpoint cannot be null");
         endpoint = requestFactory.getEndpointRaw(endpoint);
-        HttpRequest any;
-        if (body instanceof JsonArray) {
-            any = requestFactory.any(method.method, endpoint, (JsonArray)body);
-        } else if (body instanceof JsonObject){
-            any = requestFactory.any(method.method,endpoint,(JsonObject)body);
-        } else {
-            any = requestFactory.any(method.method,endpoint,(JsonObject)null);
-        }
-        RawRequest request = new RawRequest(box,any,flags,authenticate,handler);
+        RawRequest request = new RawRequest(box,method.method,endpoint,body,flags,authenticate,handler);
         return box.submitAsync(request);
     }
 
@@ -62,15 +54,7 @@ class RestImpl implements Rest{
         if (method==null) throw new IllegalArgumentException("method cannot be null");
         if (endpoint==null) throw new IllegalArgumentException("endpoint cannot be null");
         endpoint = requestFactory.getEndpointRaw(endpoint);
-        HttpRequest any;
-        if (body instanceof JsonArray) {
-            any = requestFactory.any(method.method, endpoint, (JsonArray)body);
-        } else if (body instanceof JsonObject){
-            any = requestFactory.any(method.method,endpoint,(JsonObject)body);
-        } else {
-            any = requestFactory.any(method.method,endpoint,(JsonObject)null);
-        }
-        RawRequest req = new RawRequest(box,any,RequestOptions.DEFAULT,authenticate,null);
+        RawRequest req = new RawRequest(box,method.method,endpoint,body,RequestOptions.DEFAULT,authenticate,null);
         return box.submitSync(req);
     }
 
@@ -96,11 +80,15 @@ class RestImpl implements Rest{
     }
 
     private static class RawRequest extends NetworkTask<JsonObject> {
-        HttpRequest request;
+        private final int method;
+        private final String endpoint;
+        private final JsonStructure body;
 
-        protected RawRequest(BaasBox box, HttpRequest request, int flags,boolean authenticate, BaasHandler<JsonObject> handler) {
+        protected RawRequest(BaasBox box, int method, String endpoint, JsonStructure body, int flags,boolean authenticate, BaasHandler<JsonObject> handler) {
             super(box, flags, handler,authenticate);
-            this.request = request;
+            this.method = method;
+            this.endpoint = endpoint;
+            this.body = body;
         }
 
         @Override
@@ -108,9 +96,21 @@ class RestImpl implements Rest{
             return parseJson(response, box);
         }
 
+        @Override
+        protected BaasBox.Config.WorkerPool workerPool() {
+            return BaasBox.Config.WorkerPool.REST;
+        }
+
         @Override
         protected HttpRequest request(BaasBox box) {
-            return request;
+            // built on each attempt, a retried request gets a fresh body
+            if (body instanceof JsonArray) {
+                return box.requestFactory.any(method, endpoint, (JsonArray) body);
+            } else if (body instanceof JsonObject) {
+                return box.requestFactory.any(method, endpoint, (JsonObject) body);
+            } else {
+                return box.requestFactory.any(method, endpoint, (JsonObject) null);
+            }
         }
     }
 }
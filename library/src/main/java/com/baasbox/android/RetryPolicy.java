@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+/**
+ * Decides if and when a failed asynchronous request should be retried.
+ * Retries are scheduled by the dispatcher: no worker thread is kept busy
+ * while waiting for the next attempt.
+ * Requests flagged with {@link com.baasbox.android.RequestOptions#NO_RETRY}
+ * are never retried, and no retry is attempted past the deadline of a request.
+ *
+ * @see com.baasbox.android.ExponentialBackoff
+ * @since 0.9.3
+ */
+public interface RetryPolicy {
+// ------------------------------ FIELDS ------------------------------
+
+    /**
+     * Returned by {@link #retryDelay(int, int, BaasException, long)}
+     * to stop retrying.
+     */
+    long NO_RETRY = -1;
+
+    /**
+     * A policy that never retries.
+     */
+    RetryPolicy NONE = new RetryPolicy() {
+        @Override
+        public long retryDelay(int method, int attempt, BaasException error, long retryAfterMillis) {
+            return NO_RETRY;
+        }
+    };
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns how long to wait before retrying a failed request.
+     *
+     * @param method           the http method of the request, one of the constants of {@link com.baasbox.android.net.HttpRequest}
+     * @param attempt          the number of the retry, starting from 1
+     * @param error            the error of the last attempt
+     * @param retryAfterMillis the delay asked by the server through the Retry-After header, or -1
+     * @return the delay in milliseconds or {@link #NO_RETRY}
+     */
+    long retryDelay(int method, int attempt, BaasException error, long retryAfterMillis);
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android;
+
+import android.content.Context;
+
+import com.baasbox.android.impl.DiskLruCache;
+import com.baasbox.android.impl.Logger;
+import com.baasbox.android.json.JsonObject;
+import com.baasbox.android.net.BufferPool;
+import com.baasbox.android.net.HttpRequest;
+import com.baasbox.android.net.HttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the bodies of revalidated GET responses together with their
+ * ETag and Last-Modified validators, so that requests can be made
+ * conditional and a 304 can be answered with the local copy.
+ * <p>
+ * Recently used bodies are also kept parsed in memory, so that
+ * a 304 for them does not parse the json again.
+ * Entries are kept per user.
+ * </p>
+ */
+final class RevalidationCache {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final String CACHE_DIR = "baasbox-revalidation";
+    private static final long MAX_CACHE_SIZE = 2 * 1024 * 1024;
+    private static final int MAX_PARSED = 64;
+
+    private static final int META = 0;
+    private static final int BODY = 1;
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String PARSED_CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    private final DiskLruCache disk;
+    private final Map<String, JsonObject> parsed = new LinkedHashMap<String, JsonObject>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JsonObject> eldest) {
+            return size() > MAX_PARSED;
+        }
+    };
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    RevalidationCache(Context context) {
+        DiskLruCache cache = null;
+        try {
+            cache = DiskLruCache.open(new File(context.getCacheDir(), CACHE_DIR), 1, 2, MAX_CACHE_SIZE);
+        } catch (IOException e) {
+            Logger.error(e, "Unable to open the revalidation cache, requests will not be conditional");
+        }
+        this.disk = cache;
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Returns the cache key of a request to <code>url</code> made by <code>user</code>.
+     */
+    static String keyOf(BaasUser user, String url) {
+        String identity = (user == null || user.getName() == null ? "" : user.getName()) + '\n' + url;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(identity.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Adds the conditional headers for the entry <code>key</code> to <code>request</code>.
+     *
+     * @return true if the request has been made conditional
+     */
+    boolean makeConditional(String key, HttpRequest request) {
+        if (disk == null) {
+            return false;
+        }
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = disk.get(key);
+            if (snapshot == null) {
+                return false;
+            }
+            String[] meta = snapshot.getString(META).split("\n", -1);
+            if (meta.length < 3) {
+                return false;
+            }
+            if (meta[0].length() > 0) {
+                request.headers.put(IF_NONE_MATCH, meta[0]);
+            }
+            if (meta[1].length() > 0) {
+                request.headers.put(IF_MODIFIED_SINCE, meta[1]);
+            }
+            return true;
+        } catch (IOException e) {
+            Logger.warn("Unable to read the revalidation cache: %s", e.getMessage());
+            return false;
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the local copy of the entry <code>key</code>
+     * as a successful response, after the server answered 304.
+     *
+     * @return the response or null if the entry has been evicted meanwhile
+     */
+    HttpResponse notModified(String key) {
+        JsonObject json;
+        synchronized (parsed) {
+            json = parsed.get(key);
+        }
+        if (disk == null) {
+            return null;
+        }
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = disk.get(key);
+            if (snapshot == null) {
+                return null;
+            }
+            String[] meta = snapshot.getString(META).split("\n", -1);
+            String contentType = meta.length < 3 || meta[2].length() == 0 ? null : meta[2];
+            if (json != null) {
+                // the body is encoded again from the parsed json only if it is read
+                return new Cached(this, key, PARSED_CONTENT_TYPE, null, json);
+            }
+            return new Cached(this, key, contentType, readFully(snapshot.getInputStream(BODY)), null);
+        } catch (IOException e) {
+            Logger.warn("Unable to read the revalidation cache: %s", e.getMessage());
+            return null;
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Saves the body of a successful response if it carries validators,
+     * the body is read fully and returned as a new response.
+     */
+    HttpResponse store(String key, HttpResponse response) throws IOException {
+        if (disk == null) {
+            return response;
+        }
+        synchronized (parsed) {
+            parsed.remove(key);
+        }
+        String etag = response.header(ETAG);
+        String lastModified = response.header(LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            disk.remove(key);
+            return response;
+        }
+        InputStream in = response.body();
+        byte[] body;
+        try {
+            body = in == null ? new byte[0] : readFully(in);
+        } finally {
+            response.close();
+        }
+        String contentType = response.header(CONTENT_TYPE);
+        DiskLruCache.Editor editor = disk.edit(key);
+        if (editor != null) {
+            OutputStream out = null;
+            try {
+                editor.set(META, (etag == null ? "" : etag) + '\n'
+                        + (lastModified == null ? "" : lastModified) + '\n'
+                        + (contentType == null ? "" : contentType));
+                out = editor.newOutputStream(BODY);
+                out.write(body);
+                out.close();
+                out = null;
+                editor.commit();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+                editor.abortUnlessCommitted();
+            }
+        }
+        return new Cached(this, key, contentType, body, null);
+    }
+
+    private void remember(String key, JsonObject json) {
+        synchronized (parsed) {
+            parsed.put(key, json);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BufferPool.copy(in, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * A response served from memory, either as bytes or as already parsed json.
+     */
+    static final class Cached implements HttpResponse {
+        private final RevalidationCache cache;
+        private final String key;
+        private final String contentType;
+        private byte[] body;
+        private JsonObject json;
+        private InputStream in;
+
+        Cached(RevalidationCache cache, String key, String contentType, byte[] body, JsonObject json) {
+            this.cache = cache;
+            this.key = key;
+            this.contentType = contentType;
+            this.body = body;
+            this.json = json;
+        }
+
+        /**
+         * Returns a copy of the parsed body, or null if it has not been parsed yet.
+         */
+        JsonObject parsed() {
+            return json == null ? null : json.copy();
+        }
+
+        /**
+         * Keeps the parsed body for later 304s.
+         */
+        void remember(JsonObject decoded) {
+            json = decoded.copy();
+            cache.remember(key, json);
+        }
+
+        private byte[] bytes() {
+            if (body == null) {
+                try {
+                    body = json.toString().getBytes("UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public int status() {
+            return 200;
+        }
+
+        @Override
+        public String header(String name) {
+            return CONTENT_TYPE.equalsIgnoreCase(name) ? contentType : null;
+        }
+
+        @Override
+        public Map<String, List<String>> headers() {
+            if (contentType == null) {
+                return Collections.emptyMap();
+            }
+            return Collections.singletonMap(CONTENT_TYPE, Collections.singletonList(contentType));
+        }
+
+        @Override
+        public long contentLength() {
+            return bytes().length;
+        }
+
+        @Override
+        public InputStream body() {
+            if (in == null) {
+                in = new ByteArrayInputStream(bytes());
+            }
+            return in;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "HTTP 200 (revalidated)";
+        }
+    }
+}
@@ -16,8 +16,7 @@
 package com.baasbox.android;
 
 import com.baasbox.android.net.HttpRequest;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import com.baasbox.android.net.HttpResponse;
 
 import java.io.IOException;
 
@@ -50,6 +49,11 @@ class StreamRequest extends NetworkTask<BaasStream> {
 
 // -------------------------- OTHER METHODS --------------------------
 
+    @Override
+    protected BaasBox.Config.WorkerPool workerPool() {
+        return BaasBox.Config.WorkerPool.STREAM;
+    }
+
     @Override
     protected BaasStream getFromCache(BaasBox box) throws BaasException {
         return box.mCache.getStream(id);
@@ -58,24 +62,15 @@ class StreamRequest extends NetworkTask<BaasStream> {
     @Override
     protected BaasStream onOk(int status, HttpResponse response, BaasBox box) throws BaasException {
         boolean close = true;
-        HttpEntity entity = null;
         try {
-            entity = response.getEntity();
-
-            BaasStream stream = new BaasStream(id, entity);
+            BaasStream stream = new BaasStream(id, response);
             close = false;
             return stream;
         } catch (IOException e) {
             throw new BaasException(e);
         } finally {
             if (close) {
-                try {
-                    if (entity != null) {
-                        entity.consumeContent();
-                    }
-                } catch (IOException e) {
-                    // ignored
-                }
+                response.close();
             }
         }
     }
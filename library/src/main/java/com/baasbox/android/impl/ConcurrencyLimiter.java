@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Adapts the number of requests in flight to the latency observed
+ * on the network, in the style of TCP Vegas.
+ * The lowest round trip time seen recently estimates the latency of an idle link,
+ * the gap between it and the latency of each completed request estimates
+ * how many requests are queued along the path: the limit grows while the queue
+ * stays short and shrinks when it builds up, timeouts and connection
+ * errors halve it.
+ * Requests that find no free slot wait until one is released, in the
+ * priority lanes of the worker queues: a freed slot goes to the oldest request
+ * of the highest lane, unless a lower lane has a request that waited longer
+ * than the aging threshold.
+ */
+final class ConcurrencyLimiter {
+// ------------------------------ FIELDS ------------------------------
+
+    // samples after which the idle latency is measured again,
+    // so that the estimate follows a change of network
+    private static final int PROBE_SAMPLES = 256;
+    private static final double RTT_WEIGHT = 0.125;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final ArrayDeque<Waiter>[] waiting;
+    private int waitingCount;
+    private double limit;
+    private int inFlight;
+    private long minRtt;
+    private double smoothedRtt;
+    private int samples;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    ConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        this.waiting = newLanes();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Waiter>[] newLanes() {
+        ArrayDeque<Waiter>[] lanes = new ArrayDeque[TaskQueue.LANES];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<Waiter>();
+        }
+        return lanes;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Takes a slot for <code>task</code> or puts it in wait.
+     *
+     * @return true if the task can run now
+     */
+    synchronized boolean acquire(Task<?> task) {
+        if (waitingCount == 0 && inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        waiting[TaskQueue.laneOf(task.priority())].addLast(new Waiter(task));
+        waitingCount++;
+        return false;
+    }
+
+    /**
+     * Removes a task that is waiting for a slot.
+     *
+     * @return true if the task was waiting
+     */
+    synchronized boolean remove(Task<?> task) {
+        Iterator<Waiter> waiters = waiting[TaskQueue.laneOf(task.priority())].iterator();
+        while (waiters.hasNext()) {
+            if (waiters.next().task == task) {
+                waiters.remove();
+                waitingCount--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases the slot of a completed request and updates the limit.
+     *
+     * @param rttNanos the time taken by the request, or a negative value if it should not be sampled
+     * @param dropped  true if the request timed out or lost its connection
+     * @return the waiting tasks that took the freed slots
+     */
+    synchronized List<Task<?>> release(long rttNanos, boolean dropped) {
+        final int used = inFlight;
+        inFlight--;
+        if (dropped) {
+            limit = Math.max(minLimit, limit / 2);
+        } else if (rttNanos > 0) {
+            sample(rttNanos, used);
+        }
+        if (waitingCount == 0 || inFlight >= (int) limit) {
+            return Collections.emptyList();
+        }
+        List<Task<?>> admitted = new ArrayList<Task<?>>(2);
+        while (inFlight < (int) limit && waitingCount > 0) {
+            inFlight++;
+            waitingCount--;
+            admitted.add(waiting[nextLane()].pollFirst().task);
+        }
+        return admitted;
+    }
+
+    private int nextLane() {
+        // the oldest request that waited past the aging threshold in a lane
+        // below high priority goes first, as in the worker queues
+        final long now = SystemClock.uptimeMillis();
+        long oldest = Long.MAX_VALUE;
+        int lane = -1;
+        for (int i = TaskQueue.LANE_NORMAL; i < TaskQueue.LANES; i++) {
+            Waiter head = waiting[i].peekFirst();
+            if (head != null && now - head.since >= TaskQueue.DEFAULT_AGING_MILLIS && head.since < oldest) {
+                oldest = head.since;
+                lane = i;
+            }
+        }
+        if (lane >= 0) {
+            return lane;
+        }
+        for (int i = 0; i < TaskQueue.LANES; i++) {
+            if (!waiting[i].isEmpty()) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("no waiting requests");
+    }
+
+    private void sample(long rtt, int used) {
+        smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt + RTT_WEIGHT * (rtt - smoothedRtt);
+        if (++samples % PROBE_SAMPLES == 0 || minRtt == 0 || rtt < minRtt) {
+            minRtt = rtt;
+        }
+        final int current = (int) limit;
+        final double queued = current * (1 - (double) minRtt / rtt);
+        final double log = Math.log10(Math.max(current, 10));
+        if (queued < 3 * log) {
+            // grow only if the limit was actually used
+            if (used * 2 >= current) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        } else if (queued > 6 * log) {
+            limit = Math.max(minLimit, limit - 1);
+        }
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int waiting() {
+        return waitingCount;
+    }
+
+    synchronized long minRttMillis() {
+        return minRtt / 1000000L;
+    }
+
+    synchronized long smoothedRttMillis() {
+        return (long) smoothedRtt / 1000000L;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    private static final class Waiter {
+        final Task<?> task;
+        final long since;
+
+        Waiter(Task<?> task) {
+            this.task = task;
+            this.since = SystemClock.uptimeMillis();
+        }
+    }
+}
@@ -21,10 +21,23 @@ package com.baasbox.android.impl;
  * Created by Andrea Tortorella on 12/05/14.
  */
 public final class Constants {
-    public static final int[] PRIORITY_MAP ={0,-1,1,0};
+    public static final int[] PRIORITY_MAP ={0,-1,1,-2};
     public static final int PRIORITY_NORMAL = 0;
     public static final int PRIORITY_LOW = 1;
     public static final int PRIORITY_HIGH = 2;
+    public static final int PRIORITY_BACKGROUND = PRIORITY_LOW|PRIORITY_HIGH;
     public static final int PRIORITY_MASK = PRIORITY_LOW|PRIORITY_HIGH;
 
+    public static final int FLAG_HEDGE = 1 << 3;
+    public static final int FLAG_NO_COMPRESSION = 1 << 4;
+    public static final int FLAG_QUEUE_OFFLINE = 1 << 5;
+    public static final int FLAG_NO_RETRY = 1 << 6;
+
+    public static final int TIMEOUT_SHIFT = 8;
+    public static final long MAX_TIMEOUT_MILLIS = 0xFFFFFFL;
+
+    public static long timeoutOf(int flags) {
+        return flags >>> TIMEOUT_SHIFT;
+    }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import com.baasbox.android.BaasException;
+
+/**
+ * A task that runs an internal action on a worker thread
+ * without being tracked by the dispatcher and without delivering
+ * anything to a handler.
+ */
+final class Continuation extends Task<Void> {
+// ------------------------------ FIELDS ------------------------------
+
+    private final Runnable action;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    Continuation(Runnable action) {
+        super(Constants.PRIORITY_HIGH, null);
+        this.action = action;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    @Override
+    protected Void asyncCall() throws BaasException {
+        action.run();
+        return null;
+    }
+}
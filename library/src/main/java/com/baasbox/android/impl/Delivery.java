@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+
+/**
+ * Delivers completed tasks to the thread of a looper in batches.
+ * Completions are collected and drained by a single message, that
+ * runs at most <code>budget</code> callbacks or for at most
+ * <code>sliceMillis</code> before yielding the looper to other messages.
+ */
+final class Delivery implements Runnable {
+// ------------------------------ FIELDS ------------------------------
+
+    private final Handler handler;
+    private final int budget;
+    private final long sliceMillis;
+    private final ArrayDeque<Task<?>> pending = new ArrayDeque<Task<?>>();
+    private boolean scheduled;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    Delivery(Handler handler, int budget, long sliceMillis) {
+        this.handler = handler;
+        this.budget = budget;
+        this.sliceMillis = sliceMillis;
+    }
+
+// ------------------------ INTERFACE METHODS ------------------------
+
+
+// --------------------- Interface Runnable ---------------------
+
+    @Override
+    public void run() {
+        final long start = SystemClock.uptimeMillis();
+        boolean drained = false;
+        int delivered = 0;
+        try {
+            for (; ; ) {
+                Task<?> task;
+                synchronized (pending) {
+                    task = pending.pollFirst();
+                    if (task == null) {
+                        scheduled = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                task.run();
+                delivered++;
+                if (delivered >= budget || SystemClock.uptimeMillis() - start >= sliceMillis) {
+                    return;
+                }
+            }
+        } finally {
+            if (!drained) {
+                // yield to the looper and continue with the next slice
+                handler.post(this);
+            }
+        }
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    void post(Task<?> task) {
+        synchronized (pending) {
+            pending.addLast(task);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        handler.post(this);
+    }
+}
@@ -18,14 +18,29 @@ package com.baasbox.android.impl;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemClock;
 import com.baasbox.android.BaasBox;
+import com.baasbox.android.BaasBox.Config.WorkerPool;
+import com.baasbox.android.BaasClientException;
 import com.baasbox.android.BaasHandler;
+import com.baasbox.android.BaasIOException;
 import com.baasbox.android.BaasResult;
+import com.baasbox.android.BaasServerException;
+import com.baasbox.android.BaasTimeoutException;
 import com.baasbox.android.ExceptionHandler;
 
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -35,14 +50,21 @@ public final class Dispatcher {
 // ------------------------------ FIELDS ------------------------------
 
     private static final AtomicInteger SEQUENCE = new AtomicInteger();
+    private static final long TIMER_KEEP_ALIVE = 10000;
+    private static final int RECENTLY_FINISHED = 32;
 
-    final Handler defaultMainHandler = new Handler(Looper.getMainLooper());
+    final Delivery mainDelivery;
+    private final ThreadLocal<Delivery> loopersDelivery;
+    private final ScheduledThreadPoolExecutor retryTimer;
+    private final RateLimiter limiter;
+    private final ConcurrencyLimiter concurrency;
 
 
-    private final PriorityBlockingQueue<Task<?>> taskQueue;
-    private final ConcurrentMap<Integer, Task<?>> liveAsyncs;
+    private final TaskRegistry liveAsyncs;
+    private final Map<Integer, Task<?>> recentlyFinished;
+    private final ConcurrentMap<String, Task<?>> inFlight;
     private final ExceptionHandler exceptionHandler;
-    private final Worker[] workers;
+    private final Pool[] pools;
     private final BaasBox box;
     private volatile boolean quit;
 
@@ -50,9 +72,26 @@ public final class Dispatcher {
     public Dispatcher(BaasBox box) {
         this.box = box;
         this.exceptionHandler = setHandler(box.config.exceptionHandler);
-        this.workers = createWorkers(box.config.workerThreads);
-        this.taskQueue = new PriorityBlockingQueue<Task<?>>(16);
-        this.liveAsyncs = new ConcurrentHashMap<Integer, Task<?>>(16, 0.75f, 1);
+        this.pools = createPools(this, box.config);
+        this.mainDelivery = createDelivery(Looper.getMainLooper(), box.config);
+        this.retryTimer = createTimer();
+        this.limiter = new RateLimiter(box.config.rateLimits);
+        this.concurrency = box.config.concurrencyLimit > 0 ?
+                new ConcurrencyLimiter(box.config.concurrencyLimit, box.config.maxConcurrencyLimit) : null;
+        this.loopersDelivery = new ThreadLocal<Delivery>() {
+            @Override
+            protected Delivery initialValue() {
+                return createDelivery(Looper.myLooper(), Dispatcher.this.box.config);
+            }
+        };
+        this.liveAsyncs = new TaskRegistry();
+        this.recentlyFinished = new LinkedHashMap<Integer, Task<?>>(RECENTLY_FINISHED, 0.75f) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Task<?>> eldest) {
+                return size() > RECENTLY_FINISHED;
+            }
+        };
+        this.inFlight = new ConcurrentHashMap<String, Task<?>>(16, 0.75f, 2);
     }
 
     private static ExceptionHandler setHandler(ExceptionHandler handler) {
@@ -63,22 +102,40 @@ public final class Dispatcher {
         return handler;
     }
 
-    private static Worker[] createWorkers(int threads) {
-        if (threads < 0) {
-            Logger.warn("Ignoring workerThreads: less than 0 threads, default will be used");
-            threads = 0;
-        }
-        if (threads == 0) {
-            threads = Runtime.getRuntime().availableProcessors();
-            Logger.info("Using default number of threads configuration %s", threads);
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BaasBox-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // the timer thread lives only while retries are pending
+        timer.setKeepAliveTime(TIMER_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        return timer;
+    }
+
+    private static Delivery createDelivery(Looper looper, BaasBox.Config config) {
+        return new Delivery(new Handler(looper), config.deliveryBudget, config.deliverySliceMillis);
+    }
+
+    private static Pool[] createPools(Dispatcher dispatcher, BaasBox.Config config) {
+        WorkerPool[] kinds = WorkerPool.values();
+        Pool[] pools = new Pool[kinds.length];
+        for (WorkerPool kind : kinds) {
+            BaasBox.Config.PoolSettings settings = config.workerPools.get(kind);
+            Logger.info("Using %s pool of %d to %d threads", kind, settings.coreThreads, settings.maxThreads);
+            pools[kind.ordinal()] = new Pool(dispatcher, kind, settings, config.workerSpawnThreshold);
         }
-        return new Worker[threads];
+        return pools;
     }
 
 // -------------------------- OTHER METHODS --------------------------
 
     public <R> BaasResult<R> await(int requestId) {
-        Task<R> task = (Task<R>) liveAsyncs.get(requestId);
+        Task<R> task = (Task<R>) lookup(requestId);
         if (task == null) {
             return null;
         } else if (task.result != null) {
@@ -89,6 +146,44 @@ public final class Dispatcher {
         }
     }
 
+    /**
+     * Registers a listener that receives the result of the request
+     * on the worker thread that completes it.
+     *
+     * @param requestId the id of the request
+     * @param listener  the listener
+     * @return false if the request is not known to this dispatcher
+     */
+    public <R> boolean whenComplete(int requestId, BaasHandler<R> listener) {
+        Task<R> task = (Task<R>) lookup(requestId);
+        if (task == null) {
+            return false;
+        }
+        task.whenComplete(listener);
+        return true;
+    }
+
+    /**
+     * Runs <code>action</code> on a worker thread.
+     *
+     * @param action the action to run
+     */
+    public void schedule(Runnable action) {
+        pools[WorkerPool.JSON.ordinal()].submit(new Continuation(action));
+    }
+
+    /**
+     * Runs <code>action</code> on the timer thread after <code>delay</code>
+     * milliseconds, the action must be short and must not block.
+     *
+     * @param action the action to run
+     * @param delay  the delay in milliseconds
+     * @return a future to cancel the action
+     */
+    public ScheduledFuture<?> schedule(Runnable action, long delay) {
+        return retryTimer.schedule(action, delay, TimeUnit.MILLISECONDS);
+    }
+
     public boolean cancel(int requestId, boolean immediate) {
         Task<?> task = liveAsyncs.get(requestId);
         if (task == null) return false;
@@ -99,7 +194,298 @@ public final class Dispatcher {
         }
     }
 
+    void run(Task<?> task) {
+        if (task instanceof Continuation) {
+            // continuations have nothing to deliver
+            task.execute();
+            task.unlock();
+            return;
+        }
+        final String key = task.coalesceKey();
+        if (key != null) {
+            Task<?> leader = inFlight.putIfAbsent(key, task);
+            if (leader != null && leader != task) {
+                if (leader.follow(task)) {
+                    Logger.debug("%s attached to in flight %s", task, leader);
+                    return;
+                }
+                // the leader is completing, run on our own
+                execute(task);
+                return;
+            }
+            if (throttle(task) || hold(task)) {
+                // followers keep attaching while the leader waits
+                return;
+            }
+            boolean retrying = false;
+            try {
+                measure(task);
+                retrying = retry(task);
+            } finally {
+                // followers keep waiting while the leader is retried
+                if (!retrying) {
+                    inFlight.remove(key, task);
+                    task.completeFollowers();
+                }
+            }
+            if (!retrying) {
+                task.post();
+                task.unlock();
+            }
+        } else {
+            execute(task);
+        }
+    }
+
+    private void execute(Task<?> task) {
+        if (throttle(task) || hold(task)) {
+            return;
+        }
+        measure(task);
+        if (retry(task)) {
+            return;
+        }
+        task.post();
+        task.unlock();
+    }
+
+    private boolean retry(final Task<?> task) {
+        if (quit) {
+            return false;
+        }
+        if (task.deferred()) {
+            // the task parked itself and will be replayed later
+            return true;
+        }
+        final long delay = task.nextRetry();
+        if (delay < 0) {
+            return false;
+        }
+        Logger.info("%s will be retried in %d ms", task, delay);
+        resubmit(task, delay);
+        return true;
+    }
+
+    private boolean throttle(Task<?> task) {
+        if (limiter.isEmpty() || task.isInterrupted()) {
+            return false;
+        }
+        if (task.permitted) {
+            // the task already waited for its permit
+            task.permitted = false;
+            return false;
+        }
+        final long wait = limiter.reserve(task.endpoint());
+        if (wait <= 0) {
+            return false;
+        }
+        Logger.debug("%s throttled for %d ms", task, wait);
+        task.permitted = true;
+        resubmit(task, wait);
+        return true;
+    }
+
+    private boolean limited(Task<?> task) {
+        // streams and uploads last as long as their transfer, so
+        // only json and raw requests tell the latency of the network
+        if (concurrency == null || !task.isRemote()) {
+            return false;
+        }
+        WorkerPool pool = task.workerPool();
+        return pool == WorkerPool.JSON || pool == WorkerPool.REST;
+    }
+
+    private boolean hold(Task<?> task) {
+        if (task.admitted || !limited(task) || task.isInterrupted() || task.isExpired()) {
+            return false;
+        }
+        if (concurrency.acquire(task)) {
+            task.admitted = true;
+            return false;
+        }
+        Logger.debug("%s waits for a concurrency slot", task);
+        // the task already got its rate limit permit
+        task.permitted = !limiter.isEmpty();
+        return true;
+    }
+
+    private void measure(Task<?> task) {
+        if (!task.admitted) {
+            task.execute();
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            task.execute();
+        } finally {
+            task.admitted = false;
+            BaasResult<?> result = task.result;
+            boolean dropped = false;
+            long rtt = -1;
+            if (result != null && !result.isCanceled()) {
+                Throwable error = result.error();
+                dropped = error instanceof BaasTimeoutException || error instanceof BaasIOException;
+                rtt = error == null || error instanceof BaasServerException || error instanceof BaasClientException ?
+                        System.nanoTime() - start : -1;
+            }
+            release(rtt, dropped);
+        }
+    }
+
+    private void release(long rtt, boolean dropped) {
+        for (Task<?> admitted : concurrency.release(rtt, dropped)) {
+            admitted.admitted = true;
+            pools[admitted.workerPool().ordinal()].submit(admitted);
+        }
+    }
+
+    private void resubmit(final Task<?> task, long delay) {
+        // the task goes back to its queue when the delay expires
+        // so no worker waits for it
+        retryTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pools[task.workerPool().ordinal()].submit(task);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the permits currently available for the endpoints
+     * limited by <code>prefix</code>, negative values mean that
+     * requests are waiting for permits.
+     *
+     * @param prefix a prefix configured with a rate limit
+     * @return the available permits
+     */
+    public double availablePermits(String prefix) {
+        return bucket(prefix).availablePermits();
+    }
+
+    /**
+     * Returns the number of requests that were delayed by the rate limit of <code>prefix</code>.
+     *
+     * @param prefix a prefix configured with a rate limit
+     * @return the number of delayed requests
+     */
+    public long throttledRequests(String prefix) {
+        return bucket(prefix).throttledRequests();
+    }
+
+    /**
+     * Returns the total milliseconds requests were delayed by the rate limit of <code>prefix</code>.
+     *
+     * @param prefix a prefix configured with a rate limit
+     * @return the total delay
+     */
+    public long throttledMillis(String prefix) {
+        return bucket(prefix).throttledMillis();
+    }
+
+    /**
+     * Returns the current adaptive limit of requests in flight,
+     * or -1 if the limit is disabled.
+     *
+     * @return the concurrency limit
+     */
+    public int concurrencyLimit() {
+        return concurrency == null ? -1 : concurrency.limit();
+    }
+
+    /**
+     * Returns the number of requests counted by the concurrency limit
+     * that are in flight.
+     *
+     * @return the requests in flight
+     */
+    public int requestsInFlight() {
+        return concurrency == null ? 0 : concurrency.inFlight();
+    }
+
+    /**
+     * Returns the number of requests waiting for the concurrency limit.
+     *
+     * @return the waiting requests
+     */
+    public int requestsWaiting() {
+        return concurrency == null ? 0 : concurrency.waiting();
+    }
+
+    /**
+     * Returns the lowest recent round trip time, that estimates
+     * the latency of the network without queueing.
+     *
+     * @return the round trip time in milliseconds or 0 if unknown
+     */
+    public long minRoundTripMillis() {
+        return concurrency == null ? 0 : concurrency.minRttMillis();
+    }
+
+    /**
+     * Returns the smoothed average round trip time of requests.
+     *
+     * @return the round trip time in milliseconds or 0 if unknown
+     */
+    public long roundTripMillis() {
+        return concurrency == null ? 0 : concurrency.smoothedRttMillis();
+    }
+
+    private RateLimiter.Bucket bucket(String prefix) {
+        RateLimiter.Bucket bucket = limiter.bucket(prefix);
+        if (bucket == null) {
+            throw new IllegalArgumentException("no rate limit for " + prefix);
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the delivery of the looper of the current thread.
+     */
+    Delivery currentDelivery() {
+        return loopersDelivery.get();
+    }
+
+    /**
+     * Removes a task that is still waiting in the queue of its pool.
+     *
+     * @return true if the task was removed before any worker took it
+     */
+    boolean purge(Task<?> task) {
+        boolean purged;
+        if (pools[task.workerPool().ordinal()].queue.remove(task)) {
+            if (task.admitted) {
+                // the task was given a slot it will never use
+                task.admitted = false;
+                release(-1, false);
+            }
+            purged = true;
+        } else {
+            purged = concurrency != null && concurrency.remove(task);
+        }
+        if (purged) {
+            // a throttled or held leader is already in flight
+            land(task);
+        }
+        return purged;
+    }
+
+    /**
+     * Ends the flight led by <code>task</code>, if any, and hands
+     * its result to the followers.
+     */
+    private void land(Task<?> task) {
+        String key = task.coalesceKey();
+        if (key != null && inFlight.remove(key, task)) {
+            task.completeFollowers();
+        }
+    }
+
     void finish(Task<?> req) {
+        // keep the task reachable for a while so that waiting on a
+        // token does not race with the completion of its request
+        synchronized (recentlyFinished) {
+            recentlyFinished.put(req.seqNumber, req);
+        }
         this.liveAsyncs.remove(req.seqNumber, req);
         Logger.info("%s finished", req);
     }
@@ -108,10 +494,74 @@ public final class Dispatcher {
         final int seqNumber = SEQUENCE.getAndIncrement();
         request.bind(seqNumber, this);
         liveAsyncs.put(seqNumber, request);
-        taskQueue.add(request);
+        pools[request.workerPool().ordinal()].submit(request);
         return seqNumber;
     }
 
+    /**
+     * Registers a suspended request without executing it,
+     * the request will run when it is {@link #replay(Task) replayed}.
+     *
+     * @param request the request to register
+     * @return the id of the request
+     */
+    public int park(Task<?> request) {
+        final int seqNumber = SEQUENCE.getAndIncrement();
+        request.bind(seqNumber, this);
+        request.markTaken();
+        request.suspend();
+        liveAsyncs.put(seqNumber, request);
+        return seqNumber;
+    }
+
+    /**
+     * Submits again a request that parked itself,
+     * or a follower that has to do its own work.
+     *
+     * @param request a parked request
+     */
+    public void replay(Task<?> request) {
+        pools[request.workerPool().ordinal()].submit(request);
+    }
+
+    /**
+     * Returns the number of tasks with the given priority
+     * that are waiting to be executed in any pool.
+     *
+     * @param priority one of the priority constants
+     * @return the depth of the priority lane
+     */
+    public int queueDepth(int priority) {
+        int lane = TaskQueue.laneOf(priority);
+        int depth = 0;
+        for (Pool pool : pools) {
+            depth += pool.queue.depth(lane);
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of tasks with the given priority
+     * that are waiting to be executed in <code>pool</code>.
+     *
+     * @param pool     the pool to inspect
+     * @param priority one of the priority constants
+     * @return the depth of the priority lane
+     */
+    public int queueDepth(WorkerPool pool, int priority) {
+        return pools[pool.ordinal()].queue.depth(TaskQueue.laneOf(priority));
+    }
+
+    private Task<?> lookup(int requestId) {
+        Task<?> task = liveAsyncs.get(requestId);
+        if (task == null) {
+            synchronized (recentlyFinished) {
+                task = recentlyFinished.get(requestId);
+            }
+        }
+        return task;
+    }
+
     public <R> boolean resume(int requestId, BaasHandler<R> handler) {
         Task<R> task = (Task<R>) liveAsyncs.get(requestId);
         if (task == null) {
@@ -123,22 +573,38 @@ public final class Dispatcher {
     public void start() {
         stop();
         quit = false;
-        for (int i = 0; i < workers.length; i++) {
-            workers[i] = new Worker(this);
-            workers[i].start();
+        for (Pool pool : pools) {
+            pool.start();
         }
     }
 
     public void stop() {
         quit = true;
-        for (int i = 0; i < workers.length; i++) {
-            if (workers[i] != null) {
-                workers[i].interrupt();
-                workers[i] = null;
-            }
+        for (Pool pool : pools) {
+            pool.stop();
         }
     }
 
+    /**
+     * Returns the number of live worker threads of <code>pool</code>.
+     *
+     * @param pool the pool to inspect
+     * @return the number of threads
+     */
+    public int liveWorkers(WorkerPool pool) {
+        return pools[pool.ordinal()].live.get();
+    }
+
+    /**
+     * Returns true if the request is still known to this dispatcher.
+     *
+     * @param requestId the id of the request
+     * @return true if the request is live
+     */
+    public boolean isLive(int requestId) {
+        return liveAsyncs.get(requestId) != null;
+    }
+
     public boolean suspend(int requestId) {
         Task<?> task = liveAsyncs.get(requestId);
         return task != null && task.suspend();
@@ -146,30 +612,174 @@ public final class Dispatcher {
 
 // -------------------------- INNER CLASSES --------------------------
 
+    /**
+     * An elastic pool of workers: it keeps <code>core</code> threads alive,
+     * and grows up to <code>max</code> threads when tasks wait in the queue
+     * longer than the spawn threshold. Threads above core are retired after
+     * they stay idle for the keep alive time.
+     */
+    private static final class Pool {
+        private static final long MIN_CHECK_DELAY = 10;
+
+        final WorkerPool kind;
+        final TaskQueue queue;
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger idle = new AtomicInteger();
+
+        private final Dispatcher dispatcher;
+        private final int core;
+        private final int max;
+        private final long keepAlive;
+        private final long spawnThreshold;
+        private final Set<Worker> workers = new HashSet<Worker>();
+        private final AtomicInteger names = new AtomicInteger();
+        private final AtomicBoolean checkScheduled = new AtomicBoolean();
+        private volatile int generation;
+
+        Pool(Dispatcher dispatcher, WorkerPool kind, BaasBox.Config.PoolSettings settings, long spawnThreshold) {
+            this.dispatcher = dispatcher;
+            this.kind = kind;
+            this.core = settings.coreThreads;
+            this.max = settings.maxThreads;
+            this.keepAlive = settings.keepAliveMillis;
+            this.spawnThreshold = spawnThreshold;
+            this.queue = new TaskQueue();
+        }
+
+        void start() {
+            for (int i = 0; i < core; i++) {
+                spawn(core);
+            }
+        }
+
+        void stop() {
+            generation++;
+            synchronized (workers) {
+                for (Worker w : workers) {
+                    w.interrupt();
+                }
+                workers.clear();
+            }
+            live.set(0);
+        }
+
+        void submit(Task<?> task) {
+            queue.offer(task);
+            if (dispatcher.quit) return;
+            if (live.get() < core) {
+                spawn(core);
+            } else if (idle.get() == 0) {
+                if (underPressure()) {
+                    spawn(max);
+                } else {
+                    scheduleCheck(spawnThreshold);
+                }
+            }
+        }
+
+        private void scheduleCheck(long delay) {
+            if (live.get() >= max || !checkScheduled.compareAndSet(false, true)) return;
+            dispatcher.retryTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    checkScheduled.set(false);
+                    check();
+                }
+            }, Math.max(delay, MIN_CHECK_DELAY), TimeUnit.MILLISECONDS);
+        }
+
+        private void check() {
+            // while every worker is blocked on a slow call there may be
+            // no submit nor take to trigger growth, so the timer does
+            if (dispatcher.quit || queue.size() == 0) return;
+            long waited = queue.oldestWait();
+            if (idle.get() == 0 && waited >= spawnThreshold) {
+                spawn(max);
+                waited = 0;
+            }
+            scheduleCheck(spawnThreshold - waited);
+        }
+
+        private boolean underPressure() {
+            // nobody is waiting for work: grow if tasks already
+            // waited too long or the backlog exceeds the workers
+            return live.get() == 0
+                    || queue.oldestWait() >= spawnThreshold
+                    || queue.size() > live.get();
+        }
+
+        void onTaken(Task<?> task) {
+            if (idle.get() == 0 && queue.size() > 0
+                    && SystemClock.uptimeMillis() - task.enqueueTime >= spawnThreshold) {
+                spawn(max);
+            }
+        }
+
+        private void spawn(int limit) {
+            for (; ; ) {
+                int current = live.get();
+                if (current >= limit) return;
+                if (live.compareAndSet(current, current + 1)) break;
+            }
+            Worker w = new Worker(dispatcher, this, names.getAndIncrement());
+            synchronized (workers) {
+                workers.add(w);
+            }
+            w.start();
+        }
+
+        boolean retire(Worker w) {
+            for (; ; ) {
+                int current = live.get();
+                if (current <= core) return false;
+                if (live.compareAndSet(current, current - 1)) break;
+            }
+            synchronized (workers) {
+                workers.remove(w);
+            }
+            return true;
+        }
+    }
+
     private static final class Worker extends Thread {
-        private final PriorityBlockingQueue<Task<?>> queue;
+        private final Pool pool;
+        private final TaskQueue queue;
         private final Dispatcher dispatcher;
+        private final int generation;
+        private final int[] credits = TaskQueue.newCredits();
 
-        Worker(Dispatcher dispatcher) {
+        Worker(Dispatcher dispatcher, Pool pool, int index) {
+            super("BaasBox-" + pool.kind.name().toLowerCase(Locale.US) + "-" + index);
             this.dispatcher = dispatcher;
-            this.queue = dispatcher.taskQueue;
+            this.pool = pool;
+            this.queue = pool.queue;
+            this.generation = pool.generation;
         }
 
         @Override
         public void run() {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
             Task<?> task;
-            while (true) {
+            while (generation == pool.generation) {
+                pool.idle.incrementAndGet();
                 try {
-                    task = queue.take();
+                    task = queue.poll(credits, pool.keepAlive, TimeUnit.MILLISECONDS);
                 } catch (InterruptedException e) {
                     if (dispatcher.quit) return;
                     continue;
+                } finally {
+                    pool.idle.decrementAndGet();
+                }
+                if (task == null) {
+                    if (pool.retire(this)) {
+                        Logger.debug("%s retired after being idle", getName());
+                        return;
+                    }
+                    continue;
                 }
+                pool.onTaken(task);
                 try {
-                    task.execute();
-                    task.post();
-                    task.unlock();
+                    dispatcher.run(task);
                 } catch (Exception t) {
                     if (dispatcher.exceptionHandler.onError(t)) {
                         Logger.error(t,"Dispatcher error");
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import android.os.SystemClock;
+
+import com.baasbox.android.BaasBox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits the rate of requests sent to families of endpoints.
+ * Each family is identified by an endpoint prefix and owns a token bucket,
+ * an endpoint belongs to the family with the longest matching prefix.
+ * Requests are never rejected: a request that finds no tokens reserves the next
+ * one and is told how long it must wait before being sent.
+ */
+final class RateLimiter {
+// ------------------------------ FIELDS ------------------------------
+
+    private final List<Bucket> buckets;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    RateLimiter(Map<String, BaasBox.Config.RateLimit> limits) {
+        this(bucketsOf(limits));
+    }
+
+    RateLimiter(Collection<Bucket> all) {
+        Map<String, Bucket> byPrefix = new HashMap<String, Bucket>();
+        for (Bucket bucket : all) {
+            byPrefix.put(bucket.prefix, bucket);
+        }
+        List<Bucket> buckets = new ArrayList<Bucket>(byPrefix.values());
+        // longest prefixes are matched first
+        Collections.sort(buckets, new Comparator<Bucket>() {
+            @Override
+            public int compare(Bucket lhs, Bucket rhs) {
+                return rhs.prefix.length() - lhs.prefix.length();
+            }
+        });
+        this.buckets = buckets;
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    private static List<Bucket> bucketsOf(Map<String, BaasBox.Config.RateLimit> limits) {
+        List<Bucket> buckets = new ArrayList<Bucket>(limits.size());
+        for (Map.Entry<String, BaasBox.Config.RateLimit> limit : limits.entrySet()) {
+            buckets.add(new Bucket(limit.getKey(), limit.getValue().permitsPerSecond, limit.getValue().burst));
+        }
+        return buckets;
+    }
+
+    static String normalize(String prefix) {
+        if (prefix.endsWith("*")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        if (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        return prefix;
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    /**
+     * Reserves a permit to send a request to <code>endpoint</code>.
+     *
+     * @param endpoint the endpoint relative to the api root
+     * @return the milliseconds to wait before sending the request
+     */
+    long reserve(String endpoint) {
+        Bucket bucket = find(endpoint);
+        return bucket == null ? 0 : bucket.reserve();
+    }
+
+    Bucket bucket(String prefix) {
+        String normalized = normalize(prefix);
+        for (Bucket bucket : buckets) {
+            if (bucket.prefix.equals(normalized)) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    private Bucket find(String endpoint) {
+        if (endpoint == null) {
+            return null;
+        }
+        for (Bucket bucket : buckets) {
+            if (endpoint.startsWith(bucket.prefix)) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    static final class Bucket {
+        final String prefix;
+        private final double permitsPerMilli;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+        private long throttledRequests;
+        private long throttledMillis;
+
+        Bucket(String prefix, double permitsPerSecond, int burst) {
+            this.prefix = normalize(prefix);
+            this.permitsPerMilli = permitsPerSecond / 1000d;
+            this.capacity = burst;
+            this.tokens = capacity;
+            this.lastRefill = SystemClock.uptimeMillis();
+        }
+
+        synchronized long reserve() {
+            refill();
+            tokens -= 1;
+            if (tokens >= 0) {
+                return 0;
+            }
+            // tokens can go below zero: each waiting request owns
+            // one of the tokens that will be refilled
+            long wait = (long) Math.ceil(-tokens / permitsPerMilli);
+            throttledRequests++;
+            throttledMillis += wait;
+            return wait;
+        }
+
+        synchronized double availablePermits() {
+            refill();
+            return tokens;
+        }
+
+        synchronized long throttledRequests() {
+            return throttledRequests;
+        }
+
+        synchronized long throttledMillis() {
+            return throttledMillis;
+        }
+
+        private void refill() {
+            long now = SystemClock.uptimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerMilli);
+            lastRefill = now;
+        }
+    }
+}
@@ -16,11 +16,13 @@
 package com.baasbox.android.impl;
 
 
-import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import com.baasbox.android.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -34,25 +36,40 @@ public abstract class Task<R> implements Runnable, Comparable<Task<R>> {
 // ------------------------------ FIELDS ------------------------------
     volatile BaasResult<R> result;
     int seqNumber;
-    volatile CountDownLatch latch;
+    final CountDownLatch latch = new CountDownLatch(1);
+    long enqueueTime;
+    boolean permitted;
+    boolean admitted;
+    final long deadline;
     protected BaasBox box;
 
 
     private AtomicBoolean taken = new AtomicBoolean(false);
-    private Handler postOn;
+    private volatile boolean cancelRequested;
+    private Delivery deliverOn;
     private Dispatcher dispatcher;
     private int priority;
     private final AtomicReference<BaasHandler<?>> suspendableHandler = new AtomicReference<BaasHandler<?>>();
+    private List<Task<?>> followers;
+    private boolean flightCompleted;
+    private List<BaasHandler<R>> completions;
+    private boolean completed;
 
 // --------------------------- CONSTRUCTORS ---------------------------
     protected Task(int flags, BaasHandler<R> handler) {
         this.priority = parsePriority(flags);
+        this.deadline = parseDeadline(flags);
         this.suspendableHandler.set(handler == null ? BaasHandler.NOOP : handler);
     }
 
     private static int parsePriority(int flags){
         return flags;
     }
+
+    private static long parseDeadline(int flags){
+        long timeout = Constants.timeoutOf(flags);
+        return timeout == 0 ? 0 : SystemClock.uptimeMillis() + timeout;
+    }
 // ------------------------ CANONICAL METHODS ------------------------
 
     @Override
@@ -132,19 +149,35 @@ public abstract class Task<R> implements Runnable, Comparable<Task<R>> {
 // -------------------------- OTHER METHODS --------------------------
 
     final boolean abort() {
+        cancelRequested = true;
         if (!taken.get()) {
-            // aborting always runs before connection
-            // happens. If we reach this point the request
-            // can be active or suspended
+            // the request has not been picked by a worker
+            // it can be active or suspended
             // but nor delivered or committed
             result = BaasResult.cancel();
             // we can simply forcefully set the value
             // to ABORTED to let the resource been cleaned up
             suspendableHandler.set(Signal.ABORTED);
             finish();
+            if (dispatcher.purge(this)) {
+                // no worker will see it anymore
+                unlock();
+            }
             return true;
         }
-        return false;
+        // the request is running: it can be aborted only
+        // until its result is delivered
+        for (; ; ) {
+            BaasHandler<?> curr = suspendableHandler.get();
+            if (curr == Signal.COMMITTED || curr == Signal.ABORTED || result != null) {
+                return false;
+            }
+            if (suspendableHandler.compareAndSet(curr, Signal.ABORTED)) {
+                finish();
+                interrupt();
+                return true;
+            }
+        }
     }
 
     private void finish() {
@@ -153,7 +186,6 @@ public abstract class Task<R> implements Runnable, Comparable<Task<R>> {
     }
 
     public void await() {
-        latch = new CountDownLatch(1);
         try {
             latch.await();
         } catch (InterruptedException e) {
@@ -161,44 +193,275 @@ public abstract class Task<R> implements Runnable, Comparable<Task<R>> {
         }
     }
 
+    /**
+     * Adds a listener that is invoked with the result of this task
+     * on the thread that completes it, or immediately on the calling thread
+     * if the task is already completed.
+     * Listeners are independent of the handler of the task and
+     * are not affected by suspension.
+     *
+     * @param listener a non null listener
+     */
+    final void whenComplete(BaasHandler<R> listener) {
+        synchronized (this) {
+            if (!completed) {
+                if (completions == null) {
+                    completions = new ArrayList<BaasHandler<R>>(2);
+                }
+                completions.add(listener);
+                return;
+            }
+        }
+        listener.handle(result);
+    }
+
     final void bind(int seqNumber, Dispatcher dispatcher) {
         this.seqNumber = seqNumber;
         this.dispatcher = dispatcher;
 
-        if (postOn == null) {
+        if (deliverOn == null) {
             Looper looper = Looper.myLooper();
             if (looper == Looper.getMainLooper() || looper == null) {
-                this.postOn = dispatcher.defaultMainHandler;
+                this.deliverOn = dispatcher.mainDelivery;
             } else {
-                this.postOn = new Handler(looper);
+                this.deliverOn = dispatcher.currentDelivery();
             }
         }
     }
 
     final boolean cancel() {
+        cancelRequested = true;
         if (!taken.get()) {
             result = BaasResult.cancel();
+            if (dispatcher.purge(this)) {
+                // no worker will see it anymore
+                // so we deliver the cancellation now
+                post();
+                unlock();
+            }
             return true;
         }
-        return false;
+        if (result != null) {
+            return false;
+        }
+        interrupt();
+        return true;
+    }
+
+    private void interrupt() {
+        try {
+            onInterrupt();
+        } catch (RuntimeException e) {
+            Logger.error(e, "Error while interrupting %s", this);
+        }
+    }
+
+    /**
+     * Invoked on the cancelling thread when the task is cancelled
+     * while it is executing.
+     * Subclasses should release the resources that keep the task busy,
+     * such as open connections, so that {@link #asyncCall()} returns early.
+     */
+    protected void onInterrupt() {
+    }
+
+    /**
+     * Returns true if the task has been cancelled.
+     * Long running {@link #asyncCall()} implementations
+     * should check it and stop their work.
+     *
+     * @return true if cancellation was requested
+     */
+    protected final boolean isInterrupted() {
+        return cancelRequested;
     }
 
     final void execute() {
         if (!takeAndVerifyCancel()) {
+            if (isExpired()) {
+                Logger.debug("%s expired before execution", this);
+                result = BaasResult.failure(new BaasTimeoutException("deadline expired before execution"));
+                return;
+            }
             try {
                 R value = asyncCall();
-                result = BaasResult.success(value);
+                result = cancelRequested ? BaasResult.<R>cancel() : BaasResult.success(value);
             } catch (BaasException e) {
-                result = BaasResult.failure(e);
+                result = cancelRequested ? BaasResult.<R>cancel() : BaasResult.<R>failure(e);
+            }
+        }
+    }
+
+    /**
+     * Returns a key identifying the work done by this task, tasks
+     * with the same key submitted while one of them is in flight
+     * share the result of the first one instead of executing.
+     * Tasks that cannot share their results return null, the default.
+     *
+     * @return a key or null
+     */
+    protected String coalesceKey() {
+        return null;
+    }
+
+    /**
+     * Returns the endpoint this task is going to call, relative to the api root,
+     * used to apply rate limits. Tasks that don't call the server return null, the default.
+     *
+     * @return the endpoint or null
+     */
+    protected String endpoint() {
+        return null;
+    }
+
+    /**
+     * Returns true if this task waits on a round trip to the server,
+     * remote tasks are subject to the adaptive concurrency limit.
+     * By default tasks are local.
+     *
+     * @return true if the task calls the server
+     */
+    protected boolean isRemote() {
+        return false;
+    }
+
+    final boolean follow(Task<?> follower) {
+        synchronized (this) {
+            if (flightCompleted) {
+                return false;
+            }
+            if (followers == null) {
+                followers = new ArrayList<Task<?>>(2);
             }
+            follower.taken.set(true);
+            followers.add(follower);
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    final void completeFollowers() {
+        List<Task<?>> waiting;
+        synchronized (this) {
+            flightCompleted = true;
+            waiting = followers;
+            followers = null;
+        }
+        if (waiting == null) {
+            return;
+        }
+        for (Task<?> follower : waiting) {
+            ((Task<R>) follower).share(result);
         }
     }
 
+    private void share(BaasResult<R> shared) {
+        if (cancelRequested) {
+            result = BaasResult.cancel();
+        } else if (shared == null || shared.isCanceled() || shared.error() instanceof BaasTimeoutException) {
+            // the leader failed without a result, was cancelled or
+            // ran out of its own time, so we do our own work:
+            // back in the queue, to be limited and retried like any task
+            taken.set(false);
+            dispatcher.replay(this);
+            return;
+        } else {
+            result = shared;
+        }
+        post();
+        unlock();
+    }
+
     private boolean takeAndVerifyCancel() {
         taken.set(true);
+        if (cancelRequested) {
+            // cancellation may have raced with the worker
+            result = BaasResult.cancel();
+            return true;
+        }
         return isCanceled();
     }
 
+    /**
+     * Returns the {@link android.os.SystemClock#uptimeMillis()} by which
+     * this task should complete, or 0 if the task has no deadline.
+     *
+     * @return the deadline of the task
+     */
+    protected final long deadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the milliseconds to wait before executing again
+     * this task, that failed with <code>error</code>,
+     * or a negative value if the failure is final.
+     * By default tasks are not retried.
+     *
+     * @param error the error of the last execution
+     * @return the delay before the next attempt
+     */
+    protected long retryDelay(BaasException error) {
+        return -1;
+    }
+
+    /**
+     * Prepares the task to be executed again if its failure is retryable.
+     *
+     * @return the delay before the next attempt or a negative value
+     */
+    final long nextRetry() {
+        BaasResult<R> r = result;
+        if (r == null || !r.isFailed() || r.isCanceled() || cancelRequested) {
+            return -1;
+        }
+        long delay = retryDelay(r.error());
+        if (delay < 0 || (deadline != 0 && SystemClock.uptimeMillis() + delay >= deadline)) {
+            return -1;
+        }
+        result = null;
+        return delay;
+    }
+
+    /**
+     * Invoked when the task failed with <code>error</code> to let it
+     * park itself until it can be executed again, instead of completing.
+     * A task that returns true must be resubmitted by whoever parked it.
+     * By default tasks are never deferred.
+     *
+     * @param error the error of the last execution
+     * @return true if the task has been parked
+     */
+    protected boolean defer(BaasException error) {
+        return false;
+    }
+
+    /**
+     * Parks the task if its failure can be deferred.
+     *
+     * @return true if the task has been parked and must not complete
+     */
+    final boolean deferred() {
+        BaasResult<R> r = result;
+        if (r == null || !r.isFailed() || r.isCanceled() || cancelRequested) {
+            return false;
+        }
+        result = null;
+        if (defer(r.error())) {
+            return true;
+        }
+        result = r;
+        return false;
+    }
+
+    final void markTaken() {
+        taken.set(true);
+    }
+
+    final boolean isExpired() {
+        return deadline != 0 && SystemClock.uptimeMillis() >= deadline;
+    }
+
     final boolean isCanceled() {
         BaasResult<R> r = result;
         return r != null && r.isCanceled();
@@ -251,13 +514,27 @@ public abstract class Task<R> implements Runnable, Comparable<Task<R>> {
     }
 
     final void post() {
-        postOn.post(this);
+        deliverOn.post(this);
     }
 
     public int seq() {
         return seqNumber;
     }
 
+    final int priority() {
+        return priority;
+    }
+
+    /**
+     * The pool of workers this task should be executed on.
+     * Tasks are routed by default to the pool of small json requests.
+     *
+     * @return the pool of this task
+     */
+    protected BaasBox.Config.WorkerPool workerPool() {
+        return BaasBox.Config.WorkerPool.JSON;
+    }
+
     boolean suspend() {
         for (; ; ) {
             BaasHandler<?> curr = suspendableHandler.get();
@@ -288,8 +565,21 @@ public abstract class Task<R> implements Runnable, Comparable<Task<R>> {
     }
 
     final void unlock() {
-        if (latch != null) {
-            latch.countDown();
+        List<BaasHandler<R>> listeners;
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            listeners = completions;
+            completions = null;
+        }
+        latch.countDown();
+        if (listeners != null) {
+            BaasResult<R> r = result;
+            for (BaasHandler<R> listener : listeners) {
+                listener.handle(r);
+            }
         }
     }
 
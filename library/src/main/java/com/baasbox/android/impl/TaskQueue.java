@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking queue of tasks split in priority lanes.
+ * Lanes are served using smooth weighted round robin, so that
+ * higher lanes get most of the turns without starving the lower ones,
+ * tasks that waited longer than the aging threshold are served first.
+ * <p>
+ * Lanes are lock free: tasks are offered and taken without contending
+ * on a shared lock, that is acquired only to wake up idle workers.
+ * Each worker keeps its own round robin credits, so workers pick
+ * their lanes independently.
+ * </p>
+ */
+final class TaskQueue {
+// ------------------------------ FIELDS ------------------------------
+
+    static final int LANES = 4;
+    static final int LANE_HIGH = 0;
+    static final int LANE_NORMAL = 1;
+    static final int LANE_LOW = 2;
+    static final int LANE_BACKGROUND = 3;
+
+    private static final int[] LANE_WEIGHTS = {8, 4, 2, 1};
+    static final long DEFAULT_AGING_MILLIS = 2000;
+
+    private final ConcurrentLinkedQueue<Slot>[] lanes;
+    private final AtomicIntegerArray depth = new AtomicIntegerArray(LANES);
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final long agingMillis;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    TaskQueue() {
+        this(DEFAULT_AGING_MILLIS);
+    }
+
+    @SuppressWarnings("unchecked")
+    TaskQueue(long agingMillis) {
+        this.agingMillis = agingMillis;
+        this.lanes = new ConcurrentLinkedQueue[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<Slot>();
+        }
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    static int laneOf(int priority) {
+        switch (priority & Constants.PRIORITY_MASK) {
+            case Constants.PRIORITY_HIGH:
+                return LANE_HIGH;
+            case Constants.PRIORITY_LOW:
+                return LANE_LOW;
+            case Constants.PRIORITY_BACKGROUND:
+                return LANE_BACKGROUND;
+            default:
+                return LANE_NORMAL;
+        }
+    }
+
+    /**
+     * Returns new round robin credits for a worker.
+     */
+    static int[] newCredits() {
+        return new int[LANES];
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    void offer(Task<?> task) {
+        final int lane = laneOf(task.priority());
+        task.enqueueTime = SystemClock.uptimeMillis();
+        lanes[lane].offer(new Slot(task));
+        depth.incrementAndGet(lane);
+        size.incrementAndGet();
+        if (waiters.get() > 0) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    Task<?> poll(int[] credits, long timeout, TimeUnit unit) throws InterruptedException {
+        Task<?> task = dequeue(credits);
+        if (task != null) {
+            return task;
+        }
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        for (; ; ) {
+            lock.lockInterruptibly();
+            waiters.incrementAndGet();
+            try {
+                while (size.get() <= 0) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+            task = dequeue(credits);
+            if (task != null) {
+                return task;
+            }
+            // another worker got there first
+        }
+    }
+
+    boolean remove(Task<?> task) {
+        final int lane = laneOf(task.priority());
+        Iterator<Slot> slots = lanes[lane].iterator();
+        while (slots.hasNext()) {
+            Slot slot = slots.next();
+            // tasks are removed by identity
+            if (slot.task == task && slot.claim()) {
+                lanes[lane].remove(slot);
+                depth.decrementAndGet(lane);
+                size.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int depth(int lane) {
+        return depth.get(lane);
+    }
+
+    int size() {
+        return Math.max(0, size.get());
+    }
+
+    long oldestWait() {
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < LANES; i++) {
+            Slot head = lanes[i].peek();
+            if (head != null && head.task.enqueueTime < oldest) {
+                oldest = head.task.enqueueTime;
+            }
+        }
+        return oldest == Long.MAX_VALUE ? 0 : SystemClock.uptimeMillis() - oldest;
+    }
+
+    private Task<?> dequeue(int[] credits) {
+        while (size.get() > 0) {
+            int lane = agedLane();
+            if (lane < 0) {
+                lane = weightedLane(credits);
+            }
+            if (lane < 0) {
+                return null;
+            }
+            Slot slot;
+            while ((slot = lanes[lane].poll()) != null) {
+                if (slot.claim()) {
+                    depth.decrementAndGet(lane);
+                    size.decrementAndGet();
+                    return slot.task;
+                }
+                // the task was removed while we were polling
+            }
+        }
+        return null;
+    }
+
+    private int agedLane() {
+        // the oldest task that waited past the aging threshold in a lane
+        // below high priority is served before anything else
+        final long now = SystemClock.uptimeMillis();
+        long oldest = Long.MAX_VALUE;
+        int lane = -1;
+        for (int i = LANE_NORMAL; i < LANES; i++) {
+            Slot head = lanes[i].peek();
+            if (head != null && now - head.task.enqueueTime >= agingMillis && head.task.enqueueTime < oldest) {
+                oldest = head.task.enqueueTime;
+                lane = i;
+            }
+        }
+        return lane;
+    }
+
+    private int weightedLane(int[] credits) {
+        int total = 0;
+        int best = -1;
+        for (int i = 0; i < LANES; i++) {
+            if (lanes[i].isEmpty()) {
+                credits[i] = 0;
+                continue;
+            }
+            credits[i] += LANE_WEIGHTS[i];
+            total += LANE_WEIGHTS[i];
+            if (best == -1 || credits[i] > credits[best]) {
+                best = i;
+            }
+        }
+        if (best != -1) {
+            credits[best] -= total;
+        }
+        return best;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * A queued task, claimed exactly once either by
+     * the worker that takes it or by its removal.
+     */
+    private static final class Slot extends AtomicBoolean {
+        final Task<?> task;
+
+        Slot(Task<?> task) {
+            this.task = task;
+        }
+
+        boolean claim() {
+            return compareAndSet(false, true);
+        }
+    }
+}
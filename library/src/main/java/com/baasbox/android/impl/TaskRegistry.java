@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.impl;
+
+/**
+ * A concurrent map of live tasks keyed by their sequence number.
+ * Keys are primitive ints, so lookups don't allocate, and the map is split
+ * in stripes, each an open addressing table guarded by its own lock.
+ */
+final class TaskRegistry {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Stripe[] stripes;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    TaskRegistry() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    Task<?> get(int key) {
+        return stripeOf(key).get(key);
+    }
+
+    void put(int key, Task<?> task) {
+        stripeOf(key).put(key, task);
+    }
+
+    /**
+     * Removes the mapping of <code>key</code> only if it is mapped to <code>task</code>.
+     *
+     * @return true if the mapping was removed
+     */
+    boolean remove(int key, Task<?> task) {
+        return stripeOf(key).remove(key, task);
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private Stripe stripeOf(int key) {
+        // sequence numbers are consecutive, so the low bits spread them evenly
+        return stripes[key & (STRIPES - 1)];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * An open addressing table with linear probing and
+     * backward shift deletion, so no tombstones are left behind.
+     */
+    private static final class Stripe {
+        private int[] keys = new int[INITIAL_CAPACITY];
+        private Task<?>[] values = new Task<?>[INITIAL_CAPACITY];
+        private int size;
+
+        synchronized Task<?> get(int key) {
+            final int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(int key, Task<?> task) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = task;
+                    return;
+                }
+            }
+            keys[i] = key;
+            values[i] = task;
+            size++;
+        }
+
+        synchronized boolean remove(int key, Task<?> task) {
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    if (values[i] != task) {
+                        return false;
+                    }
+                    delete(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void delete(int hole) {
+            final int mask = keys.length - 1;
+            values[hole] = null;
+            size--;
+            // shift back the entries of the cluster that probed past the hole
+            for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+                int home = hash(keys[i]) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    values[i] = null;
+                    hole = i;
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            Task<?>[] oldValues = values;
+            keys = new int[capacity];
+            values = new Task<?>[capacity];
+            final int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
@@ -21,6 +21,11 @@ import android.os.Parcelable;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Junk drawer of utility methods.
@@ -30,6 +35,7 @@ public final class Util {
 
     static final Charset US_ASCII = Charset.forName("US-ASCII");
     static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long DAEMON_KEEP_ALIVE = 10000;
 
 // --------------------------- CONSTRUCTORS ---------------------------
     private Util() {
@@ -83,6 +89,29 @@ public final class Util {
     }
 
 
+    /**
+     * Creates a pool of at most <code>max</code> daemon threads named <code>BaasBox-name-n</code>.
+     * Threads are started on demand and retired after being idle for a while,
+     * tasks submitted while every thread is busy are rejected.
+     *
+     * @param name the name of the threads
+     * @param max  the maximum number of threads
+     * @return a new pool
+     */
+    public static ThreadPoolExecutor daemonPool(final String name, int max) {
+        return new ThreadPoolExecutor(0, max, DAEMON_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger names = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BaasBox-" + name + "-" + names.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
     public static void writeOptString(Parcel p, String s) {
         if (s == null) {
             p.writeByte((byte) 0);
@@ -2,6 +2,7 @@ package com.baasbox.android.json;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
 
 /**
  * Represent JSON structured data, either a {@link com.baasbox.android.json.JsonObject}
@@ -100,6 +101,21 @@ public abstract class JsonStructure {
      */
     public abstract String encode();
 
+    /**
+     * Encodes this structure to it's json representation
+     * directly into <code>out</code>, without building the whole string.
+     * The writer is flushed but not closed.
+     *
+     * @param out the writer to encode to
+     * @throws IOException if the writer fails
+     */
+    public final void encode(Writer out) throws IOException {
+        encode(new JsonWriter(out));
+        out.flush();
+    }
+
+    abstract void encode(JsonWriter w) throws IOException;
+
     /**
      * Checks if this structure is a {@link JsonArray}
      *
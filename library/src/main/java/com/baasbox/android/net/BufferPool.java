@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of large buffers used to copy request bodies
+ * to the connection, so that uploads run in constant memory
+ * without allocating a new buffer for each request.
+ */
+public final class BufferPool {
+// ------------------------------ FIELDS ------------------------------
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED = 4;
+    private static final ArrayDeque<byte[]> POOL = new ArrayDeque<byte[]>(MAX_POOLED);
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    private BufferPool() {
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Takes a buffer of {@link #BUFFER_SIZE} bytes from the pool,
+     * allocating a new one if the pool is empty.
+     *
+     * @return a buffer that should be returned through {@link #release(byte[])}
+     */
+    public static byte[] acquire() {
+        synchronized (POOL) {
+            byte[] buffer = POOL.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer a buffer obtained through {@link #acquire()}
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (POOL) {
+            if (POOL.size() < MAX_POOLED) {
+                POOL.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Copies <code>in</code> to <code>out</code> using a pooled buffer.
+     * Neither stream is closed.
+     *
+     * @param in  the source
+     * @param out the destination
+     * @return the number of bytes copied
+     * @throws IOException if either stream fails
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+}
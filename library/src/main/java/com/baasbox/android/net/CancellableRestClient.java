@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+/**
+ * A {@link com.baasbox.android.net.RestClient} that can abort
+ * requests while they are executing.
+ * When a running request is cancelled the sdk invokes {@link #cancel(HttpRequest)}
+ * from the cancelling thread, clients should then close the underlying connection,
+ * so that the pending {@link #execute(HttpRequest)} or the reads of the response fail.
+ */
+public interface CancellableRestClient extends RestClient {
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Aborts the connection of a request that is being executed,
+     * does nothing if the request is not executing.
+     *
+     * @param request a request previously passed to {@link #execute(HttpRequest)}
+     */
+    void cancel(HttpRequest request);
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for gzip encoded request and response bodies.
+ * Rest clients use {@link #decode(java.io.InputStream, String)}
+ * to inflate responses while they are read.
+ */
+public final class ContentEncoding {
+// ------------------------------ FIELDS ------------------------------
+
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String GZIP = "gzip";
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    private ContentEncoding() {
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Returns true if <code>encoding</code> is gzip.
+     *
+     * @param encoding the value of a Content-Encoding header, may be null
+     * @return true if the content is gzip encoded
+     */
+    public static boolean isGzip(String encoding) {
+        return encoding != null && GZIP.equalsIgnoreCase(encoding.trim());
+    }
+
+    /**
+     * Returns a stream that decodes <code>in</code> according to <code>encoding</code>.
+     * Gzip content is inflated as it is read, other encodings are returned unchanged.
+     *
+     * @param in       the raw response body, may be null
+     * @param encoding the value of the Content-Encoding header, may be null
+     * @return the decoded body
+     */
+    public static InputStream decode(InputStream in, String encoding) {
+        if (in == null || !isGzip(encoding)) {
+            return in;
+        }
+        return new GunzipStream(in);
+    }
+
+    /**
+     * Compresses <code>bytes</code> with gzip.
+     *
+     * @param bytes the content to compress
+     * @return the compressed content
+     */
+    public static byte[] gzip(byte[] bytes) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 32);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(bytes);
+            gzip.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a body that compresses <code>body</code> with gzip while it is written.
+     * The compressed length is not known in advance, so the body is sent chunked.
+     *
+     * @param body the content to compress
+     * @return the compressed body
+     */
+    public static HttpBody gzip(HttpBody body) {
+        return new GzipBody(body);
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    private static final class GzipBody extends HttpBody {
+        private final HttpBody body;
+
+        GzipBody(HttpBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public long length() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            body.writeTo(gzip);
+            gzip.finish();
+            gzip.flush();
+        }
+
+        @Override
+        protected boolean restart() throws IOException {
+            return body.rewind();
+        }
+    }
+
+    /**
+     * Creates the inflater on the first read, so that the gzip header
+     * is not awaited while the response headers are being processed,
+     * and treats an empty body as empty content.
+     */
+    private static final class GunzipStream extends InputStream {
+        private final InputStream raw;
+        private InputStream inflated;
+        private boolean empty;
+
+        GunzipStream(InputStream raw) {
+            this.raw = raw;
+        }
+
+        private InputStream inflated() throws IOException {
+            if (inflated == null && !empty) {
+                try {
+                    inflated = new GZIPInputStream(raw);
+                } catch (EOFException e) {
+                    empty = true;
+                }
+            }
+            return inflated;
+        }
+
+        @Override
+        public int read() throws IOException {
+            InputStream in = inflated();
+            return in == null ? -1 : in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            InputStream in = inflated();
+            return in == null ? -1 : in.read(buffer, offset, count);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return inflated == null ? 0 : inflated.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inflated != null) {
+                inflated.close();
+            } else {
+                raw.close();
+            }
+        }
+    }
+}
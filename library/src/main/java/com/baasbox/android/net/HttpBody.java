@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The body of a request that can write itself to the connection.
+ * <p>
+ * Bodies are still {@link java.io.InputStream}s, so that any {@link com.baasbox.android.net.RestClient}
+ * can read them, but clients should use {@link #writeTo(java.io.OutputStream)} to send them
+ * without buffering, using {@link #length()} to choose between a fixed length and a chunked transfer.
+ * Reading a body as a stream materializes it in memory.
+ * </p>
+ */
+public abstract class HttpBody extends InputStream {
+// ------------------------------ FIELDS ------------------------------
+
+    private InputStream materialized;
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns the length in bytes of this body,
+     * or -1 if it is not known and the body must be sent chunked.
+     *
+     * @return the length of the body
+     * @throws IOException if the length cannot be computed
+     */
+    public abstract long length() throws IOException;
+
+    /**
+     * Writes this body to <code>out</code>, that is flushed but not closed.
+     *
+     * @param out the stream of the connection
+     * @throws IOException if the stream fails
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Prepares this body to be sent again after an attempt that consumed it,
+     * as when a failed request is retried.
+     *
+     * @return true if the body can be sent again
+     * @throws IOException if the body cannot be restarted
+     */
+    public final boolean rewind() throws IOException {
+        materialized = null;
+        return restart();
+    }
+
+    /**
+     * Restarts the source of this body, bodies that can be written
+     * more than once should return true.
+     * By default bodies cannot be replayed.
+     *
+     * @return true if the body can be written again
+     * @throws IOException if the source cannot be restarted
+     */
+    protected boolean restart() throws IOException {
+        return false;
+    }
+
+    private InputStream materialized() throws IOException {
+        if (materialized == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeTo(out);
+            materialized = new ByteArrayInputStream(out.toByteArray());
+        }
+        return materialized;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return materialized().read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        return materialized().read(buffer, offset, count);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return materialized == null ? 0 : materialized.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (materialized != null) {
+            materialized.close();
+        }
+    }
+}
@@ -15,6 +15,8 @@
 
 package com.baasbox.android.net;
 
+import android.os.SystemClock;
+
 import java.io.InputStream;
 import java.util.Map;
 
@@ -36,6 +38,12 @@ public class HttpRequest {
     public final Map<String, String> headers;
     public InputStream body;
 
+    /**
+     * The {@link android.os.SystemClock#uptimeMillis()} by which
+     * the request should complete, or 0 if it has no deadline.
+     */
+    public long deadline;
+
 // --------------------------- CONSTRUCTORS ---------------------------
     public HttpRequest(int method, String url, Map<String, String> headers, InputStream body) {
         this.method = method;
@@ -44,6 +52,36 @@ public class HttpRequest {
         this.body = body;
     }
 
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns the milliseconds left before the deadline of this request
+     * or {@link Long#MAX_VALUE} if it has no deadline.
+     *
+     * @return the remaining time
+     */
+    public long remainingMillis() {
+        if (deadline == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadline - SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Bounds <code>timeout</code> to the time left before the deadline
+     * of this request, a timeout of 0 means no timeout.
+     *
+     * @param timeout the timeout in milliseconds
+     * @return the bounded timeout
+     */
+    public int boundTimeout(int timeout) {
+        long remaining = remainingMillis();
+        if (remaining == Long.MAX_VALUE || (timeout > 0 && timeout <= remaining)) {
+            return timeout;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, remaining));
+    }
+
 // ------------------------ CANONICAL METHODS ------------------------
 
     @Override
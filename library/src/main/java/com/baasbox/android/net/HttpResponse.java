@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response to an {@link com.baasbox.android.net.HttpRequest}
+ * as returned by a {@link com.baasbox.android.net.NativeRestClient}.
+ * <p>
+ * Headers are read from the underlying connection when they are asked for
+ * and the body is the stream of the connection, already decoded
+ * if the content was gzip encoded.
+ * </p>
+ */
+public interface HttpResponse {
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns the status code of the response.
+     *
+     * @return the http status code
+     */
+    int status();
+
+    /**
+     * Returns the first value of the header <code>name</code>, ignoring its case.
+     *
+     * @param name the name of the header
+     * @return the value or null if the header is missing
+     */
+    String header(String name);
+
+    /**
+     * Returns all the headers of the response.
+     *
+     * @return a map from header names to their values
+     */
+    Map<String, List<String>> headers();
+
+    /**
+     * Returns the length of the body as read from {@link #body()},
+     * or -1 if it is not known.
+     *
+     * @return the length of the body
+     */
+    long contentLength();
+
+    /**
+     * Returns the body of the response, the same stream is returned
+     * on each invocation.
+     *
+     * @return the body or null if the response has none
+     * @throws IOException if the body cannot be opened
+     */
+    InputStream body() throws IOException;
+
+    /**
+     * Releases the body of the response, discarding what was not read.
+     */
+    void close();
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import com.baasbox.android.BaasException;
+
+/**
+ * A {@link com.baasbox.android.net.RestClient} that returns
+ * its own {@link com.baasbox.android.net.HttpResponse}s, without
+ * adapting them to the apache http types.
+ * <p>
+ * Clients that implement only {@link com.baasbox.android.net.RestClient}
+ * keep working, their responses are adapted.
+ * </p>
+ */
+public interface NativeRestClient extends RestClient {
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Executes the http request returning on success the response of the service.
+     * Failures must be wrapped in a BaasException.
+     *
+     * @param request the request
+     * @return the response
+     * @throws com.baasbox.android.BaasException
+     */
+    HttpResponse call(HttpRequest request) throws BaasException;
+}
@@ -22,25 +22,26 @@ import android.content.Context;
 import com.baasbox.android.BaasBox;
 import com.baasbox.android.BaasException;
 import com.baasbox.android.BaasIOException;
+import com.baasbox.android.BaasTimeoutException;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
-import com.squareup.okhttp.Protocol;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpRequestFactory;
-import org.apache.http.HttpResponse;
-import org.apache.http.ProtocolVersion;
-import org.apache.http.StatusLine;
-import org.apache.http.entity.BasicHttpEntity;
-import org.apache.http.message.BasicHttpResponse;
-import org.apache.http.message.BasicStatusLine;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okio.BufferedSink;
 import okio.Okio;
@@ -49,12 +50,26 @@ import okio.Source;
 /**
  * Created by Andrea Tortorella on 08/07/14.
  */
-public class OkClient implements RestClient{
+public class OkClient implements NativeRestClient, CancellableRestClient, PooledRestClient{
 
     private static final byte[] ZERO_BYTES=new byte[0];
 
     private OkHttpClient mOkHttp;
     private String charset;
+    private int connectTimeout;
+    private int readTimeout;
+    private final Map<HttpRequest,Call> calls =
+            Collections.synchronizedMap(new WeakHashMap<HttpRequest, Call>());
+    private final Map<Connection,Boolean> seenConnections = new WeakHashMap<Connection, Boolean>();
+    private final AtomicLong newConnections = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final Interceptor connectionCounter = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            countConnection(chain.connection());
+            return chain.proceed(chain.request());
+        }
+    };
     public OkClient() { this(new OkHttpClient());}
 
     @Deprecated
@@ -64,14 +79,47 @@ public class OkClient implements RestClient{
 
     public OkClient(OkHttpClient client){
         mOkHttp = client;
+        // added once: the client may be initialized again by a new BaasBox
+        mOkHttp.networkInterceptors().add(connectionCounter);
     }
 
     @Override
     public void init(Context context, BaasBox.Config config) {
         this.charset=config.httpCharset;
+        this.connectTimeout = config.httpConnectionTimeout;
+        this.readTimeout = config.httpSocketTimeout;
         mOkHttp.setConnectTimeout(config.httpConnectionTimeout, TimeUnit.MILLISECONDS);
         mOkHttp.setReadTimeout(config.httpSocketTimeout,TimeUnit.MILLISECONDS);
         mOkHttp.setFollowSslRedirects(true);
+        if (mOkHttp.getConnectionPool() == null) {
+            // a client configured by the application keeps its own pool
+            mOkHttp.setConnectionPool(new ConnectionPool(config.connectionPoolSize, config.connectionKeepAliveMillis));
+        }
+    }
+
+    private void countConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        boolean reused;
+        synchronized (seenConnections) {
+            reused = seenConnections.put(connection, Boolean.TRUE) != null;
+        }
+        if (reused) {
+            reusedConnections.incrementAndGet();
+        } else {
+            newConnections.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long newConnections() {
+        return newConnections.get();
+    }
+
+    @Override
+    public long reusedConnections() {
+        return reusedConnections.get();
     }
 
     private static class InputRequestBody extends RequestBody{
@@ -93,16 +141,56 @@ public class OkClient implements RestClient{
         }
     }
 
+    private static class StreamingRequestBody extends RequestBody{
+        MediaType media;
+        HttpBody body;
+        StreamingRequestBody(String ct,HttpBody body){
+            this.media=MediaType.parse(ct);
+            this.body=body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return media;
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return body.length();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            body.writeTo(sink.outputStream());
+        }
+    }
+
     private RequestBody buildBody(String contentType,InputStream bodyData) {
         if (bodyData==null){
             return RequestBody.create(MediaType.parse("application/json;charset=" + charset), "{}");
+        } else if (bodyData instanceof HttpBody){
+            return new StreamingRequestBody(contentType,(HttpBody)bodyData);
         } else {
             return new InputRequestBody(contentType,bodyData);
         }
     }
 
     @Override
-    public HttpResponse execute(HttpRequest request) throws BaasException {
+    public org.apache.http.HttpResponse execute(HttpRequest request) throws BaasException {
+        HttpResponse response = call(request);
+        try {
+            return Responses.toApache(response);
+        } catch (IOException e) {
+            response.close();
+            throw new BaasIOException(e);
+        }
+    }
+
+    @Override
+    public HttpResponse call(HttpRequest request) throws BaasException {
+        if (request.remainingMillis() == 0) {
+            throw new BaasTimeoutException("deadline expired before connecting");
+        }
         String contentType = request.headers.get("Content-Type");
         Request.Builder okRequestBuilder = new Request.Builder();
         boolean contentLengthSet = false;
@@ -112,7 +200,8 @@ public class OkClient implements RestClient{
             }
             okRequestBuilder.addHeader(name,request.headers.get(name));
         }
-        if (!contentLengthSet){
+        if (!contentLengthSet && !(request.body instanceof HttpBody)){
+            // streamed bodies declare their own length
             okRequestBuilder.addHeader("Content-Length","0");
         }
         RequestBody rb;
@@ -142,46 +231,96 @@ public class OkClient implements RestClient{
         okRequestBuilder.url(request.url);
         Request okRequest=okRequestBuilder.build();
         try {
-            Response resp = mOkHttp.newCall(okRequest).execute();
-            Protocol protocol = resp.protocol();
-            ProtocolVersion pv;
-            switch (protocol){
-                case HTTP_1_0:
-                    pv = new ProtocolVersion("HTTP",1,0);
-                    break;
-                case HTTP_1_1:
-                    pv = new ProtocolVersion("HTTP",1,1);
-                    break;
-                case HTTP_2:
-                    pv = new ProtocolVersion("HTTP",2,0);
-                    break;
-                case SPDY_3:
-                    pv = new ProtocolVersion("spdy",3,1);
-                    break;
-                default:
-                    throw new BaasIOException("Invalid protocol");
-            }
-            StatusLine line = new BasicStatusLine(pv,resp.code(),resp.message());
-            BasicHttpResponse bresp = new BasicHttpResponse(line);
-            bresp.setEntity(asEntity(resp));
-
-            for (String name:resp.headers().names()){
-                String val = resp.headers().get(name);
-                bresp.addHeader(name,val);
-            }
-            return bresp;
+            Call call = clientFor(request).newCall(okRequest);
+            calls.put(request,call);
+            Response resp = call.execute();
+            return new OkResponse(resp);
         } catch (IOException e) {
+            if (request.remainingMillis() == 0) {
+                throw new BaasTimeoutException("deadline expired", e);
+            }
             throw new BaasIOException(e);
         }
     }
 
-    private HttpEntity asEntity(Response resp) throws IOException{
-        BasicHttpEntity entity =new BasicHttpEntity();
-        InputStream inputStream = resp.body().byteStream();
-        entity.setContent(inputStream);
-        entity.setContentLength(resp.body().contentLength());
-        String ctnt=resp.body().contentType().toString();
-        entity.setContentType(ctnt);
-        return entity;
+    @Override
+    public void cancel(HttpRequest request) {
+        Call call = calls.remove(request);
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    private OkHttpClient clientFor(HttpRequest request) {
+        if (request.deadline == 0) {
+            return mOkHttp;
+        }
+        // clones share the connection pool of the original client
+        OkHttpClient bounded = mOkHttp.clone();
+        bounded.setConnectTimeout(request.boundTimeout(connectTimeout), TimeUnit.MILLISECONDS);
+        bounded.setReadTimeout(request.boundTimeout(readTimeout), TimeUnit.MILLISECONDS);
+        return bounded;
+    }
+
+    /**
+     * A response that reads headers and body from the okhttp response.
+     */
+    private static final class OkResponse implements HttpResponse {
+        private final Response response;
+        private InputStream body;
+
+        OkResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public int status() {
+            return response.code();
+        }
+
+        @Override
+        public String header(String name) {
+            return response.header(name);
+        }
+
+        @Override
+        public Map<String, List<String>> headers() {
+            return response.headers().toMultimap();
+        }
+
+        @Override
+        public long contentLength() {
+            // the length of gzip content is not the length of what is read
+            if (ContentEncoding.isGzip(response.header(ContentEncoding.CONTENT_ENCODING))) {
+                return -1;
+            }
+            try {
+                return response.body().contentLength();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (body == null) {
+                body = ContentEncoding.decode(response.body().byteStream(), response.header(ContentEncoding.CONTENT_ENCODING));
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            try {
+                body().close();
+            } catch (IOException e) {
+                // swallow
+            }
+        }
+
+        @Override
+        public String toString() {
+            return response.protocol() + " " + response.code();
+        }
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+/**
+ * A {@link com.baasbox.android.net.RestClient} that keeps connections
+ * alive between requests and reports how often they are reused.
+ *
+ * @see com.baasbox.android.BaasBox.Builder#setConnectionPool(int, long)
+ */
+public interface PooledRestClient extends RestClient {
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Returns the number of connections opened by this client,
+     * or -1 if they cannot be observed.
+     *
+     * @return the connections opened
+     */
+    long newConnections();
+
+    /**
+     * Returns the number of requests sent on a connection
+     * that was already open, or -1 if they cannot be observed.
+     *
+     * @return the reused connections
+     */
+    long reusedConnections();
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014. BaasBox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.baasbox.android.net;
+
+import com.baasbox.android.BaasException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adapts {@link com.baasbox.android.net.HttpResponse}s to and from
+ * the apache http responses of plain {@link com.baasbox.android.net.RestClient}s.
+ */
+public final class Responses {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final ProtocolVersion HTTP_1_1 = new ProtocolVersion("HTTP", 1, 1);
+    private static final String CONTENT_TYPE = "Content-Type";
+
+// --------------------------- CONSTRUCTORS ---------------------------
+    private Responses() {
+    }
+
+// -------------------------- STATIC METHODS --------------------------
+
+    /**
+     * Executes <code>request</code> with <code>client</code>, natively
+     * if the client supports it, adapting the apache response otherwise.
+     *
+     * @param client  the client
+     * @param request the request
+     * @return the response
+     * @throws BaasException if the request fails
+     */
+    public static HttpResponse execute(RestClient client, HttpRequest request) throws BaasException {
+        if (client instanceof NativeRestClient) {
+            return ((NativeRestClient) client).call(request);
+        }
+        return wrap(client.execute(request));
+    }
+
+    /**
+     * Wraps an apache http response.
+     * Gzip encoded bodies are inflated while they are read.
+     *
+     * @param response the response to wrap
+     * @return the wrapped response
+     */
+    public static HttpResponse wrap(org.apache.http.HttpResponse response) {
+        return new ApacheResponse(response);
+    }
+
+    /**
+     * Copies <code>response</code> to an apache http response,
+     * used by native clients to implement {@link RestClient#execute(HttpRequest)}.
+     * Native clients inflate gzip bodies, so the gzip Content-Encoding is not copied.
+     *
+     * @param response the response to copy
+     * @return an apache response that reads the same body
+     * @throws IOException if the body cannot be opened
+     */
+    public static org.apache.http.HttpResponse toApache(HttpResponse response) throws IOException {
+        BasicHttpResponse apache = new BasicHttpResponse(new BasicStatusLine(HTTP_1_1, response.status(), null));
+        for (Map.Entry<String, List<String>> header : response.headers().entrySet()) {
+            for (String value : header.getValue()) {
+                if (ContentEncoding.CONTENT_ENCODING.equalsIgnoreCase(header.getKey()) && ContentEncoding.isGzip(value)) {
+                    continue;
+                }
+                apache.addHeader(header.getKey(), value);
+            }
+        }
+        InputStream body = response.body();
+        if (body != null) {
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(body);
+            entity.setContentLength(response.contentLength());
+            entity.setContentType(response.header(CONTENT_TYPE));
+            apache.setEntity(entity);
+        }
+        return apache;
+    }
+
+    /**
+     * Reads the whole body of <code>response</code> as a string, using the charset
+     * of its content type or <code>defaultCharset</code> if it has none.
+     * The body is closed.
+     *
+     * @param response       the response
+     * @param defaultCharset the charset to use if the response does not declare one
+     * @return the body or null if the response has none
+     * @throws IOException if the body cannot be read
+     */
+    public static String toString(HttpResponse response, String defaultCharset) throws IOException {
+        InputStream body = response.body();
+        if (body == null) {
+            return null;
+        }
+        String charset = charsetOf(response.header(CONTENT_TYPE));
+        Reader reader = new InputStreamReader(body, charset == null ? defaultCharset : charset);
+        try {
+            long length = response.contentLength();
+            StringBuilder content = new StringBuilder(length > 0 && length < 65536 ? (int) length : 1024);
+            char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
+            return content.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String charsetOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                String charset = param.substring(8).trim();
+                if (charset.length() > 1 && charset.startsWith("\"") && charset.endsWith("\"")) {
+                    charset = charset.substring(1, charset.length() - 1);
+                }
+                return charset.length() == 0 ? null : charset;
+            }
+        }
+        return null;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    private static final class ApacheResponse implements HttpResponse {
+        private final org.apache.http.HttpResponse response;
+        private Map<String, List<String>> headers;
+        private InputStream body;
+
+        ApacheResponse(org.apache.http.HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public int status() {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public String header(String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        @Override
+        public Map<String, List<String>> headers() {
+            if (headers == null) {
+                Map<String, List<String>> all = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+                for (Header header : response.getAllHeaders()) {
+                    List<String> values = all.get(header.getName());
+                    if (values == null) {
+                        values = new ArrayList<String>(1);
+                        all.put(header.getName(), values);
+                    }
+                    values.add(header.getValue());
+                }
+                headers = Collections.unmodifiableMap(all);
+            }
+            return headers;
+        }
+
+        @Override
+        public long contentLength() {
+            HttpEntity entity = response.getEntity();
+            if (entity == null || gzipped()) {
+                // the length of the inflated content is not known
+                return -1;
+            }
+            return entity.getContentLength();
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (body == null && entity != null) {
+                // gzip is always accepted, but clients set by the application
+                // may hand over the content as it was received
+                body = ContentEncoding.decode(entity.getContent(), header(ContentEncoding.CONTENT_ENCODING));
+            }
+            return body;
+        }
+
+        private boolean gzipped() {
+            return ContentEncoding.isGzip(header(ContentEncoding.CONTENT_ENCODING));
+        }
+
+        @Override
+        public void close() {
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                try {
+                    entity.consumeContent();
+                } catch (IOException e) {
+                    // swallow
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(response.getStatusLine());
+        }
+    }
+}
@@ -23,6 +23,8 @@ import org.apache.http.HttpResponse;
 
 /**
  * This interface represent an http client for Baasbox.
+ * Clients should implement {@link com.baasbox.android.net.NativeRestClient}
+ * to avoid adapting their responses to the apache http types.
  * Created by Andrea Tortorella on 23/12/13.
  */
 public interface RestClient {